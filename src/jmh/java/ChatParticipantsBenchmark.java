@@ -0,0 +1,44 @@
+import org.openjdk.jmh.annotations.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Вспомогательные методы Chat для групп от 2 до 10 000 участников
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChatParticipantsBenchmark {
+    @Param({"2", "100", "1000", "10000"})
+    public int groupSize;
+
+    private Chat chat;
+    private int lastParticipantId;
+
+    @Setup
+    public void setup() {
+        List<User> participants = new ArrayList<>();
+        for (int i = 1; i <= groupSize; i++) {
+            participants.add(User.builder().id(i).username("user_" + i).build());
+        }
+        chat = Chat.builder().id(1).name("Группа").isGroup(groupSize > 2).participants(participants).build();
+        lastParticipantId = groupSize;
+    }
+
+    @Benchmark
+    public boolean hasParticipantHit() {
+        return chat.hasParticipant(lastParticipantId);
+    }
+
+    @Benchmark
+    public boolean hasParticipantMiss() {
+        return chat.hasParticipant(-1);
+    }
+
+    @Benchmark
+    public String participantsNames() {
+        return chat.getParticipantsNames(1);
+    }
+}
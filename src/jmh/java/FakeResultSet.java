@@ -0,0 +1,57 @@
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+// Одна строка результата в массивах: отдаёт значения колонок без обращения к БД.
+// Реализованы только геттеры по имени колонки, которые вызывают mapUser и mapMessage
+public class FakeResultSet extends UnsupportedResultSet {
+    private final String[] columns;
+    private final Object[] values;
+    private boolean wasNull;
+
+    public FakeResultSet(String[] columns, Object[] values) {
+        if (columns.length != values.length) {
+            throw new IllegalArgumentException("Число колонок и значений не совпадает");
+        }
+        this.columns = columns;
+        this.values = values;
+    }
+
+    @Override
+    public int getInt(String columnLabel) throws SQLException {
+        Object value = value(columnLabel);
+        return value != null ? ((Number) value).intValue() : 0;
+    }
+
+    @Override
+    public boolean getBoolean(String columnLabel) throws SQLException {
+        Object value = value(columnLabel);
+        return value != null && (Boolean) value;
+    }
+
+    @Override
+    public String getString(String columnLabel) throws SQLException {
+        return (String) value(columnLabel);
+    }
+
+    @Override
+    public Timestamp getTimestamp(String columnLabel) throws SQLException {
+        return (Timestamp) value(columnLabel);
+    }
+
+    @Override
+    public boolean wasNull() {
+        return wasNull;
+    }
+
+    // Колонок несколько штук - линейный поиск дешевле хеширования
+    private Object value(String columnLabel) throws SQLException {
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i].equals(columnLabel)) {
+                Object value = values[i];
+                wasNull = value == null;
+                return value;
+            }
+        }
+        throw new SQLException("Нет колонки " + columnLabel);
+    }
+}
@@ -0,0 +1,41 @@
+import org.openjdk.jmh.annotations.*;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.concurrent.TimeUnit;
+
+// Маппинг строк результата в User и Message
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MappingBenchmark {
+    private ResultSet userRow;
+    private ResultSet messageRow;
+
+    @Setup
+    public void setup() {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+
+        userRow = new FakeResultSet(
+                new String[]{"id", "username", "role", "is_blocked", "blocked_until", "created_at"},
+                new Object[]{42, "ivan_petrov", "USER", false, null, now});
+
+        messageRow = new FakeResultSet(
+                new String[]{"id", "chat_id", "sender_id", "sender_name", "content", "is_deleted", "created_at"},
+                new Object[]{100500, 7, 42, "ivan_petrov", "Привет! Как дела? Встречаемся завтра в 10:00 у входа.",
+                        false, now});
+    }
+
+    @Benchmark
+    public User mapUser() throws SQLException {
+        return DatabaseService.mapUser(userRow);
+    }
+
+    @Benchmark
+    public Message mapMessage() throws SQLException {
+        return DatabaseService.mapMessage(messageRow);
+    }
+}
@@ -0,0 +1,91 @@
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.openjdk.jmh.annotations.*;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// JSON-кодирование списков чатов и страниц сообщений общим Json.mapper().
+// chatListBaseline - прежний вариант: полные Chat с User и mapper без Blackbird, с ISO-датами и null-полями
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+    @Param({"20", "200"})
+    public int chatCount;
+
+    @Param({"2", "50"})
+    public int participantsPerChat;
+
+    private ObjectMapper objectMapper;
+    private ObjectMapper baselineMapper;
+    private List<Chat> chats;
+    private List<ChatSummary> chatSummaries;
+    private MessagePage messagePage;
+
+    @Setup
+    public void setup() {
+        objectMapper = Json.mapper();
+        baselineMapper = new ObjectMapper();
+        baselineMapper.registerModule(new JavaTimeModule());
+        baselineMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        LocalDateTime now = LocalDateTime.now();
+
+        chats = new ArrayList<>();
+        for (int c = 0; c < chatCount; c++) {
+            List<User> participants = new ArrayList<>();
+            for (int p = 0; p < participantsPerChat; p++) {
+                participants.add(User.builder().id(c * 1000 + p).username("user_" + p).createdAt(now).build()
+                        .copyWithoutPassword());
+            }
+            chats.add(Chat.builder()
+                    .id(c)
+                    .name(participantsPerChat > 2 ? "Группа " + c : null)
+                    .isGroup(participantsPerChat > 2)
+                    .createdBy(participants.get(0).getId())
+                    .participants(participants)
+                    .createdAt(now)
+                    .lastMessage(message(c * 10, c, now))
+                    .build());
+        }
+
+        chatSummaries = ChatSummary.of(chats);
+
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < DatabaseService.DEFAULT_MESSAGES_PAGE; i++) {
+            messages.add(message(i, 1, now));
+        }
+        messagePage = new MessagePage(messages, MessagePage.beforeCursor(1), MessagePage.afterCursor(50), true);
+    }
+
+    private static Message message(int id, int chatId, LocalDateTime createdAt) {
+        return Message.builder()
+                .id(id)
+                .chatId(chatId)
+                .senderId(id % 7)
+                .senderName("user_" + (id % 7))
+                .content("Сообщение номер " + id + " с обычной длиной текста для чата")
+                .createdAt(createdAt)
+                .build();
+    }
+
+    @Benchmark
+    public byte[] chatList() throws Exception {
+        return objectMapper.writeValueAsBytes(chatSummaries);
+    }
+
+    @Benchmark
+    public byte[] chatListBaseline() throws Exception {
+        return baselineMapper.writeValueAsBytes(chats);
+    }
+
+    @Benchmark
+    public byte[] messagePage() throws Exception {
+        return objectMapper.writeValueAsBytes(messagePage);
+    }
+}
@@ -1,13 +1,10 @@
 import io.javalin.Javalin;
 import io.javalin.http.Context;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.List;
 
 public class AdminController {
-    private static final ObjectMapper objectMapper = new ObjectMapper();
-
     public static void setupRoutes(Javalin app) {
         // Получение всех жалоб
         app.get("/api/admin/reports", ctx -> {
@@ -17,8 +14,37 @@ public class AdminController {
                 return;
             }
 
-            List<Report> reports = DatabaseService.getPendingReports();
-            ctx.json(reports);
+            JsonStream.writeArray(ctx, DatabaseService::streamPendingReports);
+        });
+
+        // Очередь модерации по сообщениям: ?sort=count|recent&cursor=...&limit=...
+        app.get("/api/admin/moderation", ctx -> {
+            User user = ctx.sessionAttribute("user");
+            if (user == null || !"ADMIN".equals(user.getRole())) {
+                ctx.status(403).json(Map.of("error", "Access denied"));
+                return;
+            }
+
+            String sort = ModerationPage.SORT_RECENT.equals(ctx.queryParam("sort"))
+                    ? ModerationPage.SORT_RECENT : ModerationPage.SORT_COUNT;
+            String cursor = ctx.queryParam("cursor");
+            ModerationPage.After after = ModerationPage.decode(sort, cursor);
+            if (cursor != null && !cursor.isEmpty() && after == null) {
+                ctx.status(400).json(Map.of("success", false, "message", "Некорректный курсор"));
+                return;
+            }
+            String limitParam = ctx.queryParam("limit");
+            int limit = DatabaseService.DEFAULT_MODERATION_PAGE;
+            if (limitParam != null) {
+                try {
+                    limit = Integer.parseInt(limitParam);
+                } catch (NumberFormatException e) {
+                    ctx.status(400).json(Map.of("success", false, "message", "Некорректный limit"));
+                    return;
+                }
+            }
+
+            ctx.json(DatabaseService.getModerationQueue(sort, after, limit));
         });
 
         // Обработка жалобы - ИСПРАВЛЕННАЯ ВЕРСИЯ
@@ -32,12 +58,66 @@ public class AdminController {
             int reportId = Integer.parseInt(ctx.pathParam("id"));
             String decision = ctx.formParam("decision"); // ТОЛЬКО один параметр
             String daysParam = ctx.formParam("days"); // Отдельно получаем дни
-            int days = daysParam != null ? Integer.parseInt(daysParam) : 0;
+            int days = 0;
+            if (daysParam != null && !daysParam.isBlank()) {
+                try {
+                    days = Integer.parseInt(daysParam.trim());
+                } catch (NumberFormatException e) {
+                    ctx.status(400).json(Map.of("success", false, "message", "Некорректный срок блокировки"));
+                    return;
+                }
+            }
+            if (days < 0) {
+                ctx.status(400).json(Map.of("success", false, "message", "Некорректный срок блокировки"));
+                return;
+            }
 
             boolean success = DatabaseService.processReport(reportId, decision, days, user.getId());
             ctx.json(Map.of("success", success));
         });
 
+        // Пакетное решение: {reportIds | messageId | userId, decision, days} - ровно одна область
+        app.post("/api/admin/reports/decide", ctx -> {
+            User user = ctx.sessionAttribute("user");
+            if (user == null || !"ADMIN".equals(user.getRole())) {
+                ctx.status(403).json(Map.of("error", "Access denied"));
+                return;
+            }
+
+            BulkDecisionRequest request;
+            try {
+                request = ctx.bodyAsClass(BulkDecisionRequest.class);
+            } catch (Exception e) {
+                ctx.status(400).json(Map.of("success", false, "message", "Некорректный запрос"));
+                return;
+            }
+            int scopes = (request.getReportIds() != null ? 1 : 0) + (request.getMessageId() != null ? 1 : 0)
+                    + (request.getUserId() != null ? 1 : 0);
+            if (scopes != 1 || request.getDecision() == null) {
+                ctx.status(400).json(Map.of("success", false, "message", "Укажите решение и ровно одно из: reportIds, messageId, userId"));
+                return;
+            }
+            if (request.getReportIds() != null
+                    && (request.getReportIds().isEmpty() || request.getReportIds().size() > DatabaseService.MAX_BULK_REPORTS)) {
+                ctx.status(400).json(Map.of("success", false, "message", "Некорректный список жалоб"));
+                return;
+            }
+            if (request.getDays() < 0) {
+                ctx.status(400).json(Map.of("success", false, "message", "Некорректный срок блокировки"));
+                return;
+            }
+
+            List<ReportOutcome> outcomes = DatabaseService.decideReports(request.getReportIds(), request.getMessageId(),
+                    request.getUserId(), request.getDecision(), request.getDays());
+            if (outcomes == null) {
+                ctx.status(500).json(Map.of("success", false, "message", "Внутренняя ошибка сервера"));
+                return;
+            }
+            // Пустая область - не ошибка; полная пачка по сообщению/пользователю - повторить запрос
+            boolean hasMore = request.getReportIds() == null && outcomes.size() == DatabaseService.MAX_BULK_REPORTS;
+            ctx.json(Map.of("success", true, "outcomes", outcomes, "hasMore", hasMore));
+        });
+
         // Получение всех пользователей
         app.get("/api/admin/users", ctx -> {
             User user = ctx.sessionAttribute("user");
@@ -46,8 +126,7 @@ public class AdminController {
                 return;
             }
 
-            List<User> users = DatabaseService.getAllUsers();
-            ctx.json(users);
+            JsonStream.writeArray(ctx, DatabaseService::streamAllUsers);
         });
 
         // Разблокировка пользователя
@@ -62,5 +141,39 @@ public class AdminController {
             boolean success = DatabaseService.unblockUser(userId);
             ctx.json(Map.of("success", success));
         });
+
+        // Состояние пула соединений с БД
+        app.get("/api/admin/db-pool", ctx -> {
+            User user = ctx.sessionAttribute("user");
+            if (user == null || !"ADMIN".equals(user.getRole())) {
+                ctx.status(403).json(Map.of("error", "Access denied"));
+                return;
+            }
+
+            ctx.json(DatabaseService.getPoolMetrics().snapshot());
+        });
+    }
+
+    public static class BulkDecisionRequest {
+        private List<Integer> reportIds;
+        private Integer messageId;
+        private Integer userId;
+        private String decision;
+        private int days;
+
+        public List<Integer> getReportIds() { return reportIds; }
+        public void setReportIds(List<Integer> reportIds) { this.reportIds = reportIds; }
+
+        public Integer getMessageId() { return messageId; }
+        public void setMessageId(Integer messageId) { this.messageId = messageId; }
+
+        public Integer getUserId() { return userId; }
+        public void setUserId(Integer userId) { this.userId = userId; }
+
+        public String getDecision() { return decision; }
+        public void setDecision(String decision) { this.decision = decision; }
+
+        public int getDays() { return days; }
+        public void setDays(int days) { this.days = days; }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,243 @@
+import io.javalin.http.Context;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Асинхронный журнал: потоки запросов кладут события фиксированной формы в кольцевой буфер
+// без блокировок, фоновый поток пачками пишет их в файл или stdout строками JSON
+public class AsyncLog {
+    public static final int DEBUG = 0;
+    public static final int INFO = 1;
+    public static final int WARN = 2;
+    public static final int ERROR = 3;
+    private static final String[] LEVEL_NAMES = {"DEBUG", "INFO", "WARN", "ERROR"};
+
+    private static final int CAPACITY = 1 << 14;
+    private static final int MASK = CAPACITY - 1;
+    private static final long FLUSH_INTERVAL_NANOS = 20_000_000L;
+
+    private static final LogEvent[] ring = new LogEvent[CAPACITY];
+    private static final AtomicLong claimed = new AtomicLong();
+    private static volatile long consumed;
+
+    private static final LongAdder dropped = new LongAdder();
+    private static final LatencyHistogram enqueueTime = new LatencyHistogram();
+
+    private static final DatabaseConfig config = DatabaseService.getConfig();
+    private static final int minLevel = parseLevel(config.getString("log.level", "INFO"));
+    private static final double accessSampleRate = Double.parseDouble(config.getString("log.access.sampleRate", "1.0"));
+    private static final long slowRequestNanos = config.getInt("log.access.slowMs", 500) * 1_000_000L;
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            ring[i] = new LogEvent();
+        }
+        Thread writer = new Thread(AsyncLog::writeLoop, "async-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        // Настройки читаются раньше журнала - их ошибки выводим, когда он готов
+        DatabaseConfig.onLogReady();
+    }
+
+    // Журнал доступа; ошибки и медленные запросы пишутся всегда, остальные - с вероятностью sampleRate
+    public static void access(Context ctx, float executionTimeMs) {
+        long latencyNanos = (long) (executionTimeMs * 1_000_000L);
+        int status = ctx.statusCode();
+        if (status < 400 && latencyNanos < slowRequestNanos && accessSampleRate < 1.0
+                && ThreadLocalRandom.current().nextDouble() >= accessSampleRate) {
+            return;
+        }
+        User user = ctx.sessionAttribute("user");
+        int level = status >= 500 ? ERROR : (status >= 400 || latencyNanos >= slowRequestNanos ? WARN : INFO);
+        publish(level, ctx.method().name(), ctx.path(), status, latencyNanos, user != null ? user.getId() : 0, null, null);
+    }
+
+    public static void debug(String message) { log(DEBUG, message); }
+    public static void info(String message) { log(INFO, message); }
+    public static void warn(String message) { log(WARN, message); }
+    public static void error(String message) { log(ERROR, message); }
+
+    // Трассировка стека форматируется в потоке писателя, а не на потоке запроса
+    public static void error(String message, Throwable error) {
+        publish(ERROR, null, null, 0, 0, 0, message, error);
+    }
+
+    public static boolean isEnabled(int level) {
+        return level >= minLevel;
+    }
+
+    private static void log(int level, String message) {
+        publish(level, null, null, 0, 0, 0, message, null);
+    }
+
+    private static void publish(int level, String method, String path, int status, long latencyNanos,
+                                int userId, String message, Throwable error) {
+        if (level < minLevel) {
+            return;
+        }
+        long start = System.nanoTime();
+
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed >= CAPACITY) {
+                // Буфер полон - теряем событие, а не ждём писателя
+                dropped.increment();
+                return;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+
+        LogEvent event = ring[(int) (sequence & MASK)];
+        event.timeMillis = System.currentTimeMillis();
+        event.level = level;
+        event.method = method;
+        event.path = path;
+        event.status = status;
+        event.latencyNanos = latencyNanos;
+        event.userId = userId;
+        event.message = message;
+        event.error = error;
+        event.sequence = sequence; // публикация события для писателя
+
+        enqueueTime.record(System.nanoTime() - start);
+    }
+
+    public static long getDropped() {
+        return dropped.sum();
+    }
+
+    public static LatencyHistogram getEnqueueTime() {
+        return enqueueTime;
+    }
+
+    private static void writeLoop() {
+        Writer out = openOutput();
+        StringBuilder batch = new StringBuilder(64 * 1024);
+        while (true) {
+            long next = consumed;
+            LogEvent event = ring[(int) (next & MASK)];
+            if (event.sequence == next) {
+                format(event, batch);
+                // Ссылки из слота больше не нужны - не удерживаем их до перезаписи
+                event.message = null;
+                event.error = null;
+                consumed = next + 1;
+                if (batch.length() < 32 * 1024) {
+                    continue;
+                }
+            }
+            if (batch.length() > 0) {
+                try {
+                    out.write(batch.toString());
+                    out.flush();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                batch.setLength(0);
+            }
+            // Ждём, только если следующий слот ещё не опубликован: после полной пачки
+            // очередь может быть не пуста, и тогда читаем дальше сразу
+            if (ring[(int) (consumed & MASK)].sequence != consumed) {
+                LockSupport.parkNanos(FLUSH_INTERVAL_NANOS);
+            }
+        }
+    }
+
+    private static Writer openOutput() {
+        String file = config.getString("log.file", "");
+        if (!file.isEmpty()) {
+            try {
+                return Files.newBufferedWriter(Path.of(file), StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                error("Не удалось открыть журнал " + file + ", запись в stdout: " + e.getMessage());
+            }
+        }
+        return new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+    }
+
+    private static void format(LogEvent event, StringBuilder out) {
+        out.append("{\"ts\":\"").append(Instant.ofEpochMilli(event.timeMillis))
+                .append("\",\"level\":\"").append(LEVEL_NAMES[event.level]).append('"');
+        if (event.path != null) {
+            out.append(",\"type\":\"access\",\"method\":\"").append(event.method)
+                    .append("\",\"path\":");
+            appendJsonString(out, event.path);
+            out.append(",\"status\":").append(event.status)
+                    .append(",\"latencyMs\":").append(event.latencyNanos / 1_000_000.0);
+            if (event.userId > 0) {
+                out.append(",\"userId\":").append(event.userId);
+            }
+        } else {
+            out.append(",\"type\":\"app\",\"message\":");
+            appendJsonString(out, event.message);
+            if (event.error != null) {
+                StringWriter stack = new StringWriter();
+                event.error.printStackTrace(new PrintWriter(stack));
+                out.append(",\"stack\":");
+                appendJsonString(out, stack.toString());
+            }
+        }
+        out.append("}\n");
+    }
+
+    private static void appendJsonString(StringBuilder out, String value) {
+        if (value == null) {
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+
+    private static int parseLevel(String name) {
+        for (int i = 0; i < LEVEL_NAMES.length; i++) {
+            if (LEVEL_NAMES[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return INFO;
+    }
+
+    // Слот кольцевого буфера, переиспользуется; sequence публикует заполненный слот
+    private static class LogEvent {
+        private volatile long sequence = -1;
+        private long timeMillis;
+        private int level;
+        private String method;
+        private String path;
+        private int status;
+        private long latencyNanos;
+        private int userId;
+        private String message;
+        private Throwable error;
+    }
+}
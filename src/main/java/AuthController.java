@@ -1,5 +1,8 @@
 import io.javalin.Javalin;
+import io.javalin.http.Context;
 import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 
 public class AuthController {
     public static void setupRoutes(Javalin app) {
@@ -8,22 +11,26 @@ public class AuthController {
             String username = ctx.formParam("username");
             String password = ctx.formParam("password");
 
-            System.out.println("🔐 Попытка входа: " + username);
+            AsyncLog.debug("Попытка входа: " + username);
 
             if (username == null || password == null || username.trim().isEmpty()) {
                 ctx.json(Map.of("success", false, "message", "Заполните все поля"));
                 return;
             }
 
-            User user = DatabaseService.authenticateUser(username, password);
-            if (user != null) {
-                System.out.println("✅ Успешный вход: " + username + " (роль: " + user.getRole() + ")");
-                ctx.sessionAttribute("user", user);
-                ctx.json(Map.of("success", true, "role", user.getRole()));
-            } else {
-                System.out.println("❌ Неудачный вход: " + username);
-                ctx.json(Map.of("success", false, "message", "Неверное имя пользователя или пароль"));
-            }
+            ctx.future(() -> DatabaseService.authenticateUser(username, password).handle((user, error) -> {
+                if (error != null) {
+                    respondOverloaded(ctx, error);
+                } else if (user != null) {
+                    AsyncLog.info("Успешный вход: " + username + " (роль: " + user.getRole() + ")");
+                    ctx.sessionAttribute("user", user);
+                    ctx.json(Map.of("success", true, "role", user.getRole()));
+                } else {
+                    AsyncLog.warn("Неудачный вход: " + username);
+                    ctx.json(Map.of("success", false, "message", "Неверное имя пользователя или пароль"));
+                }
+                return null;
+            }));
         });
 
         // API для регистрации
@@ -31,7 +38,7 @@ public class AuthController {
             String username = ctx.formParam("username");
             String password = ctx.formParam("password");
 
-            System.out.println("📝 Попытка регистрации: " + username);
+            AsyncLog.debug("Попытка регистрации: " + username);
 
             if (username == null || password == null || username.trim().isEmpty()) {
                 ctx.json(Map.of("success", false, "message", "Заполните все поля"));
@@ -48,14 +55,18 @@ public class AuthController {
                 return;
             }
 
-            boolean success = DatabaseService.registerUser(username, password);
-            if (success) {
-                System.out.println("✅ Успешная регистрация: " + username);
-                ctx.json(Map.of("success", true, "message", "Регистрация успешна! Теперь войдите в систему."));
-            } else {
-                System.out.println("❌ Неудачная регистрация: " + username);
-                ctx.json(Map.of("success", false, "message", "Имя пользователя уже занято"));
-            }
+            ctx.future(() -> DatabaseService.registerUser(username, password).handle((success, error) -> {
+                if (error != null) {
+                    respondOverloaded(ctx, error);
+                } else if (success) {
+                    AsyncLog.info("Успешная регистрация: " + username);
+                    ctx.json(Map.of("success", true, "message", "Регистрация успешна! Теперь войдите в систему."));
+                } else {
+                    AsyncLog.warn("Неудачная регистрация: " + username);
+                    ctx.json(Map.of("success", false, "message", "Имя пользователя уже занято"));
+                }
+                return null;
+            }));
         });
 
         // Получение текущего пользователя
@@ -70,9 +81,24 @@ public class AuthController {
 
         // Выход - ТОЛЬКО ОДИН РАЗ!
         app.post("/api/logout", ctx -> {
-            System.out.println("🚪 Выход пользователя");
+            AsyncLog.debug("Выход пользователя");
+            User user = ctx.sessionAttribute("user");
+            if (user != null) {
+                DatabaseService.onUserOffline(user.getId());
+            }
             ctx.req().getSession().invalidate();
             ctx.redirect("/");
         });
     }
+
+    // Пул BCrypt переполнен - сразу отвечаем 503, не занимая поток запроса
+    private static void respondOverloaded(Context ctx, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof RejectedExecutionException) {
+            ctx.status(503).json(Map.of("success", false, "message", "Сервер перегружен, попробуйте позже"));
+        } else {
+            AsyncLog.error("Ошибка проверки пароля", cause);
+            ctx.status(500).json(Map.of("success", false, "message", "Внутренняя ошибка сервера"));
+        }
+    }
 }
\ No newline at end of file
@@ -11,6 +11,8 @@ public class Chat {
     private List<User> participants;
     private LocalDateTime createdAt;
     private Message lastMessage;
+    private int unreadCount;
+    private int lastReadMessageId;
 
     // Конструкторы
     public Chat() {
@@ -51,6 +53,13 @@ public class Chat {
     public Message getLastMessage() { return lastMessage; }
     public void setLastMessage(Message lastMessage) { this.lastMessage = lastMessage; }
 
+    // Непрочитанное и маркер прочтения текущего пользователя
+    public int getUnreadCount() { return unreadCount; }
+    public void setUnreadCount(int unreadCount) { this.unreadCount = unreadCount; }
+
+    public int getLastReadMessageId() { return lastReadMessageId; }
+    public void setLastReadMessageId(int lastReadMessageId) { this.lastReadMessageId = lastReadMessageId; }
+
     // Бизнес-логика
     public void addParticipant(User user) {
         if (participants.stream().noneMatch(p -> p.getId() == user.getId())) {
@@ -1,13 +1,10 @@
 import io.javalin.Javalin;
 import io.javalin.http.Context;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.List;
 
 public class ChatController {
-    private static final ObjectMapper objectMapper = new ObjectMapper();
-
     public static void setupRoutes(Javalin app) {
         app.get("/api/users/search", ctx -> {
             User currentUser = ctx.sessionAttribute("user");
@@ -22,8 +19,7 @@ public class ChatController {
                 return;
             }
 
-            List<User> users = DatabaseService.searchUsers(query, currentUser.getId());
-            ctx.json(users);
+            ctx.json(DatabaseService.searchUsers(query, currentUser.getId()));
         });
 
         // Отправка запроса в друзья - ТОЛЬКО ОДИН РАЗ
@@ -92,6 +88,269 @@ public class ChatController {
             ctx.json(Map.of("success", true, "message", "Запрос отклонен"));
         });
 
+        // Чаты пользователя с последним сообщением и счётчиком непрочитанных
+        app.get("/api/chats", ctx -> {
+            User currentUser = ctx.sessionAttribute("user");
+            if (currentUser == null) {
+                ctx.status(401).json(Map.of("error", "Not authenticated"));
+                return;
+            }
+            ctx.json(ChatSummary.of(DatabaseService.getUserChats(currentUser.getId())));
+        });
+
+        // Открыть личную переписку: существующий чат пары или новый
+        app.post("/api/chat/private", ctx -> {
+            User currentUser = ctx.sessionAttribute("user");
+            if (currentUser == null) {
+                ctx.status(401).json(Map.of("error", "Not authenticated"));
+                return;
+            }
+
+            int otherUserId = Integer.parseInt(ctx.formParam("otherUserId"));
+            int chatId = DatabaseService.createPrivateChat(currentUser.getId(), otherUserId);
+            if (chatId > 0) {
+                ctx.json(Map.of("success", true, "chatId", chatId));
+            } else {
+                ctx.status(400).json(Map.of("success", false, "message", "Не удалось открыть чат"));
+            }
+        });
+
+        // Создание группы одной транзакцией: {"name": "...", "participantIds": [..]}
+        app.post("/api/chat/group", ctx -> {
+            User currentUser = ctx.sessionAttribute("user");
+            if (currentUser == null) {
+                ctx.status(401).json(Map.of("error", "Not authenticated"));
+                return;
+            }
+
+            GroupChatRequest request = ctx.bodyAsClass(GroupChatRequest.class);
+            if (request.getName() == null || request.getName().trim().isEmpty()) {
+                ctx.json(Map.of("success", false, "message", "Укажите название группы"));
+                return;
+            }
+            List<Integer> participantIds = request.getParticipantIds() != null ? request.getParticipantIds() : List.of();
+            if (participantIds.size() > DatabaseService.MAX_GROUP_SIZE) {
+                ctx.status(400).json(Map.of("success", false, "message", "Слишком много участников"));
+                return;
+            }
+
+            int chatId = DatabaseService.createGroupChat(request.getName().trim(), currentUser.getId(), participantIds);
+            if (chatId > 0) {
+                ctx.json(Map.of("success", true, "chatId", chatId));
+            } else {
+                ctx.status(500).json(Map.of("success", false, "message", "Не удалось создать группу"));
+            }
+        });
+
+        // Добавление участников группы; добавлять может любой участник
+        app.post("/api/chat/{id}/members", ctx -> {
+            User currentUser = ctx.sessionAttribute("user");
+            if (currentUser == null) {
+                ctx.status(401).json(Map.of("error", "Not authenticated"));
+                return;
+            }
+
+            int chatId = Integer.parseInt(ctx.pathParam("id"));
+            Chat chat = DatabaseService.getChatById(chatId);
+            if (chat == null || !chat.isGroup() || !DatabaseService.isChatParticipant(chatId, currentUser.getId())) {
+                ctx.status(403).json(Map.of("error", "Access denied"));
+                return;
+            }
+
+            MembersRequest request = ctx.bodyAsClass(MembersRequest.class);
+            if (request.getUserIds() == null || request.getUserIds().size() > DatabaseService.MAX_GROUP_SIZE) {
+                ctx.status(400).json(Map.of("success", false, "message", "Некорректный список участников"));
+                return;
+            }
+            ctx.json(Map.of("success", true, "added", DatabaseService.addChatMembers(chatId, request.getUserIds())));
+        });
+
+        // Удаление участников группы: создатель удаляет любых, остальные - только себя
+        app.post("/api/chat/{id}/members/remove", ctx -> {
+            User currentUser = ctx.sessionAttribute("user");
+            if (currentUser == null) {
+                ctx.status(401).json(Map.of("error", "Not authenticated"));
+                return;
+            }
+
+            int chatId = Integer.parseInt(ctx.pathParam("id"));
+            MembersRequest request = ctx.bodyAsClass(MembersRequest.class);
+            if (request.getUserIds() == null || request.getUserIds().size() > DatabaseService.MAX_GROUP_SIZE) {
+                ctx.status(400).json(Map.of("success", false, "message", "Некорректный список участников"));
+                return;
+            }
+
+            Chat chat = DatabaseService.getChatById(chatId);
+            boolean onlySelf = request.getUserIds().stream().allMatch(id -> id == currentUser.getId());
+            if (chat == null || !chat.isGroup() || (chat.getCreatedBy() != currentUser.getId() && !onlySelf)) {
+                ctx.status(403).json(Map.of("error", "Access denied"));
+                return;
+            }
+            ctx.json(Map.of("success", true, "removed", DatabaseService.removeChatMembers(chatId, request.getUserIds())));
+        });
+
+        // История сообщений чата постранично: ?cursor=...&limit=...
+        app.get("/api/chat/{id}/messages", ctx -> {
+            User currentUser = ctx.sessionAttribute("user");
+            if (currentUser == null) {
+                ctx.status(401).json(Map.of("error", "Not authenticated"));
+                return;
+            }
+
+            int chatId = Integer.parseInt(ctx.pathParam("id"));
+            if (!DatabaseService.isChatParticipant(chatId, currentUser.getId())) {
+                ctx.status(403).json(Map.of("error", "Access denied"));
+                return;
+            }
+
+            String cursor = ctx.queryParam("cursor");
+            String limitParam = ctx.queryParam("limit");
+            int limit = DatabaseService.DEFAULT_MESSAGES_PAGE;
+            if (limitParam != null) {
+                try {
+                    limit = Integer.parseInt(limitParam);
+                } catch (NumberFormatException e) {
+                    ctx.status(400).json(Map.of("error", "Invalid limit"));
+                    return;
+                }
+            }
+
+            MessagePage page = DatabaseService.getChatMessages(chatId,
+                    MessagePage.decodeBefore(cursor), MessagePage.decodeAfter(cursor), limit);
+            ctx.json(page);
+        });
+
+        // Выгрузка всей истории чата одним JSON-массивом, потоком из курсора БД
+        app.get("/api/chat/{id}/export", ctx -> {
+            User currentUser = ctx.sessionAttribute("user");
+            if (currentUser == null) {
+                ctx.status(401).json(Map.of("error", "Not authenticated"));
+                return;
+            }
+
+            int chatId = Integer.parseInt(ctx.pathParam("id"));
+            if (!DatabaseService.isChatParticipant(chatId, currentUser.getId())) {
+                ctx.status(403).json(Map.of("error", "Access denied"));
+                return;
+            }
+
+            ctx.header("Content-Disposition", "attachment; filename=\"chat-" + chatId + ".json\"");
+            JsonStream.writeArray(ctx, () -> DatabaseService.streamChatMessages(chatId));
+        });
+
+        // Поиск по сообщениям: ?q=...&chatId=...&cursor=...&limit=...
+        app.get("/api/messages/search", ctx -> {
+            User currentUser = ctx.sessionAttribute("user");
+            if (currentUser == null) {
+                ctx.status(401).json(Map.of("error", "Not authenticated"));
+                return;
+            }
+
+            String query = ctx.queryParam("q");
+            if (query == null || query.trim().length() < 2) {
+                ctx.json(new MessagePage());
+                return;
+            }
+
+            String chatParam = ctx.queryParam("chatId");
+            Integer chatId = null;
+            if (chatParam != null && !chatParam.isBlank()) {
+                try {
+                    chatId = Integer.parseInt(chatParam);
+                } catch (NumberFormatException e) {
+                    ctx.status(400).json(Map.of("error", "Invalid chatId"));
+                    return;
+                }
+            }
+            if (chatId != null && !DatabaseService.isChatParticipant(chatId, currentUser.getId())) {
+                ctx.status(403).json(Map.of("error", "Access denied"));
+                return;
+            }
+
+            String limitParam = ctx.queryParam("limit");
+            int limit = DatabaseService.DEFAULT_SEARCH_PAGE;
+            if (limitParam != null) {
+                try {
+                    limit = Integer.parseInt(limitParam);
+                } catch (NumberFormatException e) {
+                    ctx.status(400).json(Map.of("error", "Invalid limit"));
+                    return;
+                }
+            }
+
+            ctx.json(DatabaseService.searchMessages(currentUser.getId(), query.trim(), chatId,
+                    MessagePage.decodeBefore(ctx.queryParam("cursor")), limit));
+        });
+
+        // Отметка о прочтении: до messageId или до последнего сообщения чата
+        app.post("/api/chat/{id}/read", ctx -> {
+            User currentUser = ctx.sessionAttribute("user");
+            if (currentUser == null) {
+                ctx.status(401).json(Map.of("error", "Not authenticated"));
+                return;
+            }
+
+            int chatId = Integer.parseInt(ctx.pathParam("id"));
+            String messageParam = ctx.formParam("messageId");
+            Integer messageId = null;
+            if (messageParam != null && !messageParam.isBlank()) {
+                try {
+                    messageId = Integer.parseInt(messageParam);
+                } catch (NumberFormatException e) {
+                    ctx.status(400).json(Map.of("error", "Invalid messageId"));
+                    return;
+                }
+            }
+
+            int lastReadId = DatabaseService.markChatRead(chatId, currentUser.getId(), messageId);
+            if (lastReadId < 0) {
+                ctx.status(403).json(Map.of("error", "Access denied"));
+                return;
+            }
+            ctx.json(Map.of("success", true, "lastReadMessageId", lastReadId));
+        });
+
+        // Непрочитанные по всем чатам пользователя (chatId -> количество)
+        app.get("/api/unread", ctx -> {
+            User currentUser = ctx.sessionAttribute("user");
+            if (currentUser == null) {
+                ctx.status(401).json(Map.of("error", "Not authenticated"));
+                return;
+            }
+            ctx.json(DatabaseService.getUnreadCounts(currentUser.getId()));
+        });
+
+        // Отправка сообщения; подписчики чата получают его через /ws/chat
+        app.post("/api/message", ctx -> {
+            User currentUser = ctx.sessionAttribute("user");
+            if (currentUser == null) {
+                ctx.status(401).json(Map.of("error", "Not authenticated"));
+                return;
+            }
+
+            int chatId = Integer.parseInt(ctx.formParam("chatId"));
+            String content = ctx.formParam("content");
+            if (content == null || content.trim().isEmpty()) {
+                ctx.json(Map.of("success", false, "message", "Пустое сообщение"));
+                return;
+            }
+
+            if (!DatabaseService.isChatParticipant(chatId, currentUser.getId())) {
+                ctx.status(403).json(Map.of("error", "Access denied"));
+                return;
+            }
+
+            ctx.future(() -> DatabaseService
+                    .submitMessage(chatId, currentUser.getId(), currentUser.getUsername(), content)
+                    .handle((messageId, error) -> {
+                        if (error != null || messageId <= 0) {
+                            return Map.<String, Object>of("success", false);
+                        }
+                        return Map.<String, Object>of("success", true, "messageId", messageId);
+                    })
+                    .thenAccept(ctx::json));
+        });
+
         // Получение контактов пользователя
         app.get("/api/contacts", ctx -> {
             User currentUser = ctx.sessionAttribute("user");
@@ -101,8 +360,25 @@ public class ChatController {
             }
 
             List<User> contacts = DatabaseService.getUserContacts(currentUser.getId());
-            System.out.println("📞 Отправка контактов пользователю " + currentUser.getUsername() + ": " + contacts.size() + " контактов");
-            ctx.json(contacts);
+            ctx.json(UserSummary.of(contacts));
         });
     }
+
+    public static class GroupChatRequest {
+        private String name;
+        private List<Integer> participantIds;
+
+        public String getName() { return name; }
+        public void setName(String name) { this.name = name; }
+
+        public List<Integer> getParticipantIds() { return participantIds; }
+        public void setParticipantIds(List<Integer> participantIds) { this.participantIds = participantIds; }
+    }
+
+    public static class MembersRequest {
+        private List<Integer> userIds;
+
+        public List<Integer> getUserIds() { return userIds; }
+        public void setUserIds(List<Integer> userIds) { this.userIds = userIds; }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,55 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Чат в списке чатов пользователя: участники только id и именем, без служебных полей Chat
+public class ChatSummary {
+    private int id;
+    private String name;
+    private boolean group;
+    private List<UserSummary> participants;
+    private Message lastMessage;
+    private int unreadCount;
+    private int lastReadMessageId;
+
+    public static ChatSummary of(Chat chat) {
+        ChatSummary summary = new ChatSummary();
+        summary.setId(chat.getId());
+        summary.setName(chat.getName());
+        summary.setGroup(chat.isGroup());
+        summary.setParticipants(UserSummary.of(chat.getParticipants()));
+        summary.setLastMessage(chat.getLastMessage());
+        summary.setUnreadCount(chat.getUnreadCount());
+        summary.setLastReadMessageId(chat.getLastReadMessageId());
+        return summary;
+    }
+
+    public static List<ChatSummary> of(List<Chat> chats) {
+        List<ChatSummary> summaries = new ArrayList<>(chats.size());
+        for (Chat chat : chats) {
+            summaries.add(of(chat));
+        }
+        return summaries;
+    }
+
+    // Геттеры и сеттеры
+    public int getId() { return id; }
+    public void setId(int id) { this.id = id; }
+
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+
+    public boolean isGroup() { return group; }
+    public void setGroup(boolean group) { this.group = group; }
+
+    public List<UserSummary> getParticipants() { return participants; }
+    public void setParticipants(List<UserSummary> participants) { this.participants = participants; }
+
+    public Message getLastMessage() { return lastMessage; }
+    public void setLastMessage(Message lastMessage) { this.lastMessage = lastMessage; }
+
+    public int getUnreadCount() { return unreadCount; }
+    public void setUnreadCount(int unreadCount) { this.unreadCount = unreadCount; }
+
+    public int getLastReadMessageId() { return lastReadMessageId; }
+    public void setLastReadMessageId(int lastReadMessageId) { this.lastReadMessageId = lastReadMessageId; }
+}
@@ -0,0 +1,113 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Настройки подключения к БД: maxon.properties из classpath, затем файл из MAXON_CONFIG,
+// затем переменные окружения (db.pool.maxSize -> MAXON_DB_POOL_MAXSIZE)
+public class DatabaseConfig {
+    private static final String RESOURCE_NAME = "/maxon.properties";
+
+    // AsyncLog сам читает настройки, поэтому ошибки до его запуска копятся здесь
+    private static final Queue<String> pendingProblems = new ConcurrentLinkedQueue<>();
+    private static volatile boolean logReady;
+
+    private final Properties properties;
+
+    private DatabaseConfig(Properties properties) {
+        this.properties = properties;
+    }
+
+    public static DatabaseConfig load() {
+        Properties properties = new Properties();
+
+        try (InputStream in = DatabaseConfig.class.getResourceAsStream(RESOURCE_NAME)) {
+            if (in != null) {
+                properties.load(in);
+            }
+        } catch (IOException e) {
+            problem("Не удалось прочитать " + RESOURCE_NAME + ": " + e.getMessage());
+        }
+
+        String externalPath = System.getenv("MAXON_CONFIG");
+        if (externalPath != null && !externalPath.isBlank()) {
+            try (InputStream in = Files.newInputStream(Path.of(externalPath))) {
+                properties.load(in);
+            } catch (IOException e) {
+                problem("Не удалось прочитать " + externalPath + ": " + e.getMessage());
+            }
+        }
+
+        return new DatabaseConfig(properties);
+    }
+
+    public String getString(String key, String defaultValue) {
+        String env = System.getenv(envName(key));
+        if (env != null && !env.isBlank()) {
+            return env.trim();
+        }
+        String value = properties.getProperty(key);
+        return value != null && !value.isBlank() ? value.trim() : defaultValue;
+    }
+
+    public int getInt(String key, int defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            problem("Некорректное значение " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        String value = getString(key, null);
+        return value != null ? Boolean.parseBoolean(value) : defaultValue;
+    }
+
+    // Основные параметры
+    public String getJdbcUrl() { return getString("db.url", "jdbc:postgresql://localhost:5432/chat_app"); }
+    public String getUsername() { return getString("db.username", "useradmin"); }
+    public String getPassword() { return getString("db.password", "admin"); }
+
+    public boolean isVirtualThreads() { return getBoolean("virtual.threads", false); }
+
+    // Пул: с виртуальными потоками больше соединений и короче ожидание
+    public int getMaxPoolSize() { return getInt("db.pool.maxSize", isVirtualThreads() ? 20 : 10); }
+    public int getMinIdle() { return getInt("db.pool.minIdle", getMaxPoolSize()); }
+    public int getConnectionTimeoutMs() { return getInt("db.pool.connectionTimeoutMs", isVirtualThreads() ? 3_000 : 30_000); }
+    public int getMaxWaiters() { return getInt("db.pool.maxWaiters", isVirtualThreads() ? 2_000 : 200); }
+    public boolean isWarmup() { return getBoolean("db.pool.warmup", false); }
+
+    // Параметры драйвера PgJDBC
+    public int getPrepareThreshold() { return getInt("db.prepareThreshold", 5); }
+    public boolean isReWriteBatchedInserts() { return getBoolean("db.reWriteBatchedInserts", true); }
+    public int getDefaultRowFetchSize() { return getInt("db.defaultRowFetchSize", 0); }
+
+    // Вызывается AsyncLog после запуска писателя
+    static void onLogReady() {
+        logReady = true;
+        String message;
+        while ((message = pendingProblems.poll()) != null) {
+            AsyncLog.error(message);
+        }
+    }
+
+    private static void problem(String message) {
+        if (logReady) {
+            AsyncLog.error(message);
+        } else {
+            pendingProblems.add(message);
+        }
+    }
+
+    private static String envName(String key) {
+        return "MAXON_" + key.toUpperCase().replace('.', '_');
+    }
+}
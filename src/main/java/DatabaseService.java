@@ -1,108 +1,294 @@
 import java.sql.*;
 import java.time.LocalDateTime;
 import java.util.*;
-import javax.sql.DataSource;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
 import com.zaxxer.hikari.HikariDataSource;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import at.favre.lib.crypto.bcrypt.BCrypt;
 
 public class DatabaseService {
-    private static DataSource dataSource;
-    private static final ObjectMapper objectMapper = new ObjectMapper();
-    private static final BCrypt.Hasher bcryptHasher = BCrypt.withDefaults();
-    private static final BCrypt.Verifyer bcryptVerifyer = BCrypt.verifyer();
+    private static final DatabaseConfig config = DatabaseConfig.load();
+    private static final PoolMetrics poolMetrics = new PoolMetrics();
+    private static volatile HikariDataSource dataSource;
+    private static MessageEventBus eventBus = new LocalEventBus();
+    private static MessageBatchWriter batchWriter;
+    private static final UserCache userCache = new UserCache(10_000, 60_000);
+    private static final UnreadCounters unreadCounters = new UnreadCounters();
+    private static final MembershipIndex membershipIndex = new MembershipIndex();
+    // Пара участников личного чата (меньший id << 32 | больший id) -> id чата, LRU
+    private static final Map<Long, Integer> privateChats = Collections.synchronizedMap(
+            new LinkedHashMap<>(1024, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Integer> eldest) {
+                    return size() > 100_000;
+                }
+            });
+
+    public static final int DEFAULT_MESSAGES_PAGE = 50;
+    public static final int MAX_MESSAGES_PAGE = 200;
+    public static final int USER_SEARCH_LIMIT = 20;
+    private static final int MIN_TRIGRAM_QUERY = 3;
+    // Есть ли триграммный индекс (V6, требует pg_trgm); null - ещё не проверяли
+    private static volatile Boolean trigramSearch;
+    // Непрочитанные считаются по хвосту после маркера прочтения, но не дальше этого числа
+    public static final int MAX_UNREAD_COUNT = 1_000;
+    private static final String UNREAD_COUNT_SQL = "(SELECT COUNT(*) FROM (SELECT 1 FROM messages um " +
+            "WHERE um.chat_id = cp.chat_id AND um.id > cp.last_read_message_id AND um.sender_id <> cp.user_id " +
+            "AND um.is_deleted = false LIMIT " + MAX_UNREAD_COUNT + ") tail)";
+    // Последний id сообщения чата в снимке запроса: более новые счётчики добирают из событий шины
+    private static final String LAST_MESSAGE_ID_SQL =
+            "(SELECT COALESCE(MAX(lx.id), 0) FROM messages lx WHERE lx.chat_id = cp.chat_id)";
+    public static final int MAX_GROUP_SIZE = 1_000;
+    public static final int DEFAULT_SEARCH_PAGE = 20;
+    // Колонки сообщения для mapMessage: без content_tsv, его не нужно гонять по сети
+    private static final String MESSAGE_COLUMNS = "m.id, m.chat_id, m.sender_id, m.content, m.is_deleted, m.created_at";
+    public static final int DEFAULT_MODERATION_PAGE = 50;
+    public static final int MAX_MODERATION_PAGE = 200;
+    public static final int MAX_BULK_REPORTS = 10_000;
+    private static final int STREAM_FETCH_SIZE = config.getInt("db.streamFetchSize", 500);
+    public static final int MAX_SEARCH_PAGE = 50;
+    private static final int SEARCH_TIMEOUT_MS = config.getInt("search.timeoutMs", 1_500);
+
+    // Режим виртуальных потоков: virtual.threads / MAXON_VIRTUAL_THREADS=true
+    public static final boolean VIRTUAL_THREADS = config.isVirtualThreads();
+
+    // Ограничение очереди ожидающих соединения: с виртуальными потоками их могут быть десятки тысяч
+    private static final Semaphore connectionWaiters = new Semaphore(config.getMaxWaiters());
+
+    // Пул создаётся при первом обращении, а не при загрузке класса
+    private static HikariDataSource dataSource() {
+        HikariDataSource ds = dataSource;
+        if (ds == null) {
+            synchronized (DatabaseService.class) {
+                ds = dataSource;
+                if (ds == null) {
+                    ds = createDataSource();
+                    dataSource = ds;
+                }
+            }
+        }
+        return ds;
+    }
 
-    static {
+    private static HikariDataSource createDataSource() {
         HikariDataSource ds = new HikariDataSource();
-        ds.setJdbcUrl("jdbc:postgresql://localhost:5432/chat_app");
-        ds.setUsername("useradmin");
-        ds.setPassword("admin");
-        ds.setMaximumPoolSize(10);
-        dataSource = ds;
+        ds.setJdbcUrl(config.getJdbcUrl());
+        ds.setUsername(config.getUsername());
+        ds.setPassword(config.getPassword());
+        ds.setMaximumPoolSize(config.getMaxPoolSize());
+        ds.setMinimumIdle(config.getMinIdle());
+        ds.setConnectionTimeout(config.getConnectionTimeoutMs());
+        ds.setMetricsTrackerFactory((poolName, poolStats) -> poolMetrics);
+
+        // Параметры PgJDBC: серверные prepared statements, многострочные INSERT для пакетов, размер выборки
+        ds.addDataSourceProperty("prepareThreshold", config.getPrepareThreshold());
+        ds.addDataSourceProperty("reWriteBatchedInserts", config.isReWriteBatchedInserts());
+        ds.addDataSourceProperty("defaultRowFetchSize", config.getDefaultRowFetchSize());
+
+        poolMetrics.attach(ds);
+        return ds;
+    }
+
+    // Прогрев: сразу открываем minIdle соединений, чтобы первые запросы не ждали их создания
+    public static void warmUp() {
+        HikariDataSource ds = dataSource();
+        if (!config.isWarmup()) {
+            return;
+        }
+        List<Connection> connections = new ArrayList<>();
+        try {
+            for (int i = 0; i < config.getMinIdle(); i++) {
+                connections.add(ds.getConnection());
+            }
+            AsyncLog.info("Пул соединений прогрет: " + connections.size());
+        } catch (SQLException e) {
+            AsyncLog.error("Ошибка прогрева пула: " + e.getMessage());
+        } finally {
+            for (Connection conn : connections) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                    AsyncLog.error("Не удалось вернуть соединение в пул после прогрева", e);
+                }
+            }
+        }
     }
 
     public static Connection getConnection() throws SQLException {
-        return dataSource.getConnection();
+        if (!connectionWaiters.tryAcquire()) {
+            throw new SQLTransientConnectionException("Слишком много запросов ожидают соединения с БД");
+        }
+        try {
+            return dataSource().getConnection();
+        } finally {
+            connectionWaiters.release();
+        }
+    }
+
+    // Соединение для чтения: реплика, если она доступна и сессия не закреплена за primary
+    public static Connection getReadConnection() throws SQLException {
+        Connection replica = Replicas.ROUTER.getReadConnection();
+        return replica != null ? replica : getConnection();
+    }
+
+    // Реплики поднимаются при первом чтении
+    private static class Replicas {
+        static final ReplicaRouter ROUTER = ReplicaRouter.create(config);
+    }
+
+    public static DatabaseConfig getConfig() {
+        return config;
+    }
+
+    public static PoolMetrics getPoolMetrics() {
+        return poolMetrics;
+    }
+
+    public static UserCache getUserCache() {
+        return userCache;
+    }
+
+    public static UnreadCounters getUnreadCounters() {
+        return unreadCounters;
+    }
+
+    public static void setEventBus(MessageEventBus bus) {
+        eventBus = bus;
+    }
+
+    public static void setBatchWriter(MessageBatchWriter writer) {
+        batchWriter = writer;
     }
 
     // Методы для работы с пользователями
-    public static User authenticateUser(String username, String password) {
+    // Строка читается на потоке запроса, проверка BCrypt выполняется в пуле PasswordHasher
+    public static CompletableFuture<User> authenticateUser(String username, String password) {
         String sql = "SELECT * FROM users WHERE username = ? AND (is_blocked = false OR blocked_until < NOW())";
+        User user = null;
+        String storedHash = null;
+        long started = System.nanoTime();
         try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setString(1, username);
             ResultSet rs = stmt.executeQuery();
             if (rs.next()) {
-                String storedHash = rs.getString("password");
-                // Проверяем пароль (если хешированный) или сравниваем напрямую для демо
-                if (bcryptVerifyer.verify(password.toCharArray(), storedHash.toCharArray()).verified ||
-                        password.equals(storedHash)) {
-                    return mapUser(rs);
-                }
+                storedHash = rs.getString("password");
+                user = mapUser(rs);
             }
         } catch (SQLException e) {
+            Metrics.sqlError("authenticateUser");
             e.printStackTrace();
+        } finally {
+            Metrics.query("authenticateUser", started);
+        }
+
+        if (user == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        User found = user;
+        boolean legacyPassword = !PasswordHasher.isBcryptHash(storedHash);
+        return PasswordHasher.verify(password, storedHash).thenApply(verified -> {
+            if (!verified) {
+                return null;
+            }
+            // Старый пароль в открытом виде перехешируем после успешного входа
+            if (legacyPassword) {
+                PasswordHasher.hash(password)
+                        .thenAccept(hash -> updatePasswordHash(found.getId(), hash))
+                        .exceptionally(e -> null);
+            }
+            userCache.put(found);
+            return found;
+        });
+    }
+
+    private static void updatePasswordHash(int userId, String hash) {
+        String sql = "UPDATE users SET password = ? WHERE id = ?";
+        long started = System.nanoTime();
+        try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, hash);
+            stmt.setInt(2, userId);
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            Metrics.sqlError("updatePasswordHash");
+            e.printStackTrace();
+        } finally {
+            Metrics.query("updatePasswordHash", started);
         }
-        return null;
     }
 
-    public static boolean registerUser(String username, String password) {
+    public static CompletableFuture<Boolean> registerUser(String username, String password) {
         // Сначала проверяем, нет ли уже такого пользователя
         String checkSql = "SELECT id FROM users WHERE username = ?";
-        String insertSql = "INSERT INTO users (username, password) VALUES (?, ?)";
-
-        try (Connection conn = getConnection();
-             PreparedStatement checkStmt = conn.prepareStatement(checkSql);
-             PreparedStatement insertStmt = conn.prepareStatement(insertSql)) {
-
-            // Проверяем существование пользователя
+        long started = System.nanoTime();
+        try (Connection conn = getConnection(); PreparedStatement checkStmt = conn.prepareStatement(checkSql)) {
             checkStmt.setString(1, username);
             ResultSet rs = checkStmt.executeQuery();
             if (rs.next()) {
-                System.out.println("❌ Пользователь " + username + " уже существует");
-                return false; // Пользователь уже существует
+                AsyncLog.debug("Пользователь " + username + " уже существует");
+                return CompletableFuture.completedFuture(false); // Пользователь уже существует
             }
+        } catch (SQLException e) {
+            Metrics.sqlError("registerUser");
+            AsyncLog.error("Ошибка регистрации пользователя " + username + ": " + e.getMessage());
+            e.printStackTrace();
+            return CompletableFuture.completedFuture(false);
+        } finally {
+            Metrics.query("registerUser", started);
+        }
+
+        return PasswordHasher.hash(password).thenApply(hash -> insertUser(username, hash));
+    }
 
-            // Регистрируем нового пользователя
-            // Для простоты храним пароль в открытом виде (в реальном приложении используйте хеширование!)
+    private static boolean insertUser(String username, String passwordHash) {
+        String insertSql = "INSERT INTO users (username, password) VALUES (?, ?) RETURNING id";
+        long started = System.nanoTime();
+        try (Connection conn = getConnection(); PreparedStatement insertStmt = conn.prepareStatement(insertSql)) {
             insertStmt.setString(1, username);
-            insertStmt.setString(2, password); // В реальном приложении: bcryptHasher.hashToString(12, password.toCharArray())
+            insertStmt.setString(2, passwordHash);
 
-            int affectedRows = insertStmt.executeUpdate();
-            System.out.println("✅ Зарегистрирован новый пользователь: " + username);
-            return affectedRows > 0;
+            ResultSet inserted = insertStmt.executeQuery();
+            if (!inserted.next()) {
+                return false;
+            }
+            userCache.invalidate(inserted.getInt("id"));
+            AsyncLog.info("Зарегистрирован новый пользователь: " + username);
+            return true;
 
         } catch (SQLException e) {
-            System.out.println("❌ Ошибка регистрации пользователя " + username + ": " + e.getMessage());
+            Metrics.sqlError("insertUser");
+            AsyncLog.error("Ошибка регистрации пользователя " + username + ": " + e.getMessage());
             e.printStackTrace();
             return false;
+        } finally {
+            Metrics.query("insertUser", started);
         }
     }
 
-    public static List<User> searchUsers(String query) {
-        List<User> users = new ArrayList<>();
-        String sql = "SELECT * FROM users WHERE username ILIKE ? AND role = 'USER'";
-        try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, "%" + query + "%");
-            ResultSet rs = stmt.executeQuery();
-            while (rs.next()) {
-                users.add(mapUser(rs));
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-        return users;
+    public static List<UserSummary> searchUsers(String query) {
+        return searchUsers(query, -1);
     }
 
     public static User getUserById(int userId) {
+        User cached = userCache.get(userId);
+        if (cached != null) {
+            return cached;
+        }
+
         String sql = "SELECT * FROM users WHERE id = ?";
+        long started = System.nanoTime();
         try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, userId);
             ResultSet rs = stmt.executeQuery();
             if (rs.next()) {
-                return mapUser(rs);
+                User user = mapUser(rs);
+                userCache.put(user);
+                return user;
             }
         } catch (SQLException e) {
+            Metrics.sqlError("getUserById");
             e.printStackTrace();
+        } finally {
+            Metrics.query("getUserById", started);
         }
         return null;
     }
@@ -113,188 +299,768 @@ public class DatabaseService {
         String sql = "SELECT u.* FROM users u " +
                 "JOIN contacts c ON u.id = c.contact_id " +
                 "WHERE c.user_id = ?";
-        try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
+        long started = System.nanoTime();
+        try (Connection conn = getReadConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, userId);
             ResultSet rs = stmt.executeQuery();
             while (rs.next()) {
                 contacts.add(mapUser(rs));
             }
+            Metrics.rows("getUserContacts", contacts.size());
         } catch (SQLException e) {
+            Metrics.sqlError("getUserContacts");
             e.printStackTrace();
+        } finally {
+            Metrics.query("getUserContacts", started);
         }
         return contacts;
     }
 
     public static boolean addContact(int userId, int contactId) {
         String sql = "INSERT INTO contacts (user_id, contact_id) VALUES (?, ?)";
+        long started = System.nanoTime();
         try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, userId);
             stmt.setInt(2, contactId);
             return stmt.executeUpdate() > 0;
         } catch (SQLException e) {
+            Metrics.sqlError("addContact");
             e.printStackTrace();
             return false;
+        } finally {
+            Metrics.query("addContact", started);
         }
     }
 
     // Методы для работы с чатами
+    // Список чатов одним запросом: участники собираются в массивы, последнее сообщение берётся через LATERAL
     public static List<Chat> getUserChats(int userId) {
         List<Chat> chats = new ArrayList<>();
-        String sql = "SELECT c.* FROM chats c " +
+        // Загруженные счётчики в памяти новее БД - тогда хвост после маркера не считаем.
+        // Первая загрузка идёт на primary: сообщения новее снимка счётчики добирают из событий шины
+        boolean countersLoaded = unreadCounters.isLoaded(userId);
+        String sql = "SELECT c.*, p.user_ids, p.usernames, " +
+                (countersLoaded ? "0" : UNREAD_COUNT_SQL) + " AS unread_count, cp.last_read_message_id, " +
+                (countersLoaded ? "0" : LAST_MESSAGE_ID_SQL) + " AS last_message_id, " +
+                "lm.id AS lm_id, lm.sender_id AS lm_sender_id, lm.sender_name AS lm_sender_name, " +
+                "lm.content AS lm_content, lm.created_at AS lm_created_at " +
+                "FROM chats c " +
                 "JOIN chat_participants cp ON c.id = cp.chat_id " +
+                "LEFT JOIN LATERAL (" +
+                "  SELECT array_agg(u.id ORDER BY u.id) AS user_ids, " +
+                "         array_agg(u.username ORDER BY u.id) AS usernames " +
+                "  FROM chat_participants cp2 JOIN users u ON u.id = cp2.user_id " +
+                "  WHERE cp2.chat_id = c.id" +
+                ") p ON true " +
+                "LEFT JOIN LATERAL (" +
+                "  SELECT m.id, m.sender_id, u.username AS sender_name, m.content, m.created_at " +
+                "  FROM messages m JOIN users u ON m.sender_id = u.id " +
+                "  WHERE m.chat_id = c.id AND m.is_deleted = false " +
+                "  ORDER BY m.id DESC LIMIT 1" +
+                ") lm ON true " +
                 "WHERE cp.user_id = ? ORDER BY c.created_at DESC";
-        try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
+        long started = System.nanoTime();
+        UnreadCounters.Fence fence = countersLoaded ? null : unreadCounters.fence(userId);
+        try (Connection conn = countersLoaded ? getReadConnection() : getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, userId);
             ResultSet rs = stmt.executeQuery();
+            Map<Integer, UnreadCounters.Seed> seeds = new HashMap<>();
             while (rs.next()) {
                 Chat chat = mapChat(rs);
-                chat.setParticipants(getChatParticipants(chat.getId()));
-                chat.setLastMessage(getLastMessage(chat.getId()));
+                chat.setParticipants(mapParticipants(rs));
+                chat.setLastMessage(mapLastMessage(rs, chat.getId()));
+                chat.setLastReadMessageId(rs.getInt("last_read_message_id"));
+                if (fence != null) {
+                    seeds.put(chat.getId(), new UnreadCounters.Seed(rs.getInt("unread_count"),
+                            chat.getLastReadMessageId(), rs.getInt("last_message_id")));
+                }
                 chats.add(chat);
             }
+            if (fence != null) {
+                unreadCounters.load(fence, seeds);
+                fence = null;
+            }
+            for (Chat chat : chats) {
+                chat.setUnreadCount(unreadCounters.get(userId, chat.getId()));
+            }
+            Metrics.rows("getUserChats", chats.size());
         } catch (SQLException e) {
+            Metrics.sqlError("getUserChats");
             e.printStackTrace();
+        } finally {
+            if (fence != null) {
+                unreadCounters.cancel(fence);
+            }
+            Metrics.query("getUserChats", started);
         }
         return chats;
     }
 
+    // Личный чат ищется по упорядоченной паре (меньший id, больший id) с уникальным индексом:
+    // повторное "открыть переписку" возвращает существующий чат. Найденные пары кэшируются
     public static int createPrivateChat(int user1Id, int user2Id) {
-        String sql = "INSERT INTO chats (is_group, created_by) VALUES (false, ?) RETURNING id";
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
+        if (user1Id == user2Id) {
+            return -1;
+        }
+        int low = Math.min(user1Id, user2Id);
+        int high = Math.max(user1Id, user2Id);
+        long pairKey = ((long) low << 32) | high;
 
-            stmt.setInt(1, user1Id);
-            ResultSet rs = stmt.executeQuery();
+        Integer cached = privateChats.get(pairKey);
+        if (cached != null) {
+            return cached;
+        }
 
-            if (rs.next()) {
-                int chatId = rs.getInt(1);
-                addParticipantToChat(chatId, user1Id);
-                addParticipantToChat(chatId, user2Id);
+        int chatId = findOrCreatePrivateChat(user1Id, low, high);
+        if (chatId > 0) {
+            privateChats.put(pairKey, chatId);
+        }
+        return chatId;
+    }
+
+    // Вставка с ON CONFLICT DO NOTHING и чтение существующей строки одним запросом.
+    // Если параллельная транзакция вставила ту же пару, её строка не видна в снимке
+    // нашего запроса - тогда повторяем, новый запрос уже увидит закоммиченный чат
+    private static int findOrCreatePrivateChat(int createdBy, int low, int high) {
+        String sql = "WITH ins AS (" +
+                "  INSERT INTO chats (is_group, created_by, private_user_low, private_user_high) " +
+                "  VALUES (false, ?, ?, ?) " +
+                "  ON CONFLICT (private_user_low, private_user_high) WHERE NOT is_group DO NOTHING " +
+                "  RETURNING id) " +
+                "SELECT id, true AS created FROM ins " +
+                "UNION ALL " +
+                "SELECT id, false AS created FROM chats " +
+                "WHERE private_user_low = ? AND private_user_high = ? AND NOT is_group " +
+                "LIMIT 1";
+
+        long started = System.nanoTime();
+        Connection conn = null;
+        try {
+            conn = getConnection();
+            conn.setAutoCommit(false);
+
+            for (int attempt = 0; attempt < 3; attempt++) {
+                int chatId = -1;
+                boolean created = false;
+                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    stmt.setInt(1, createdBy);
+                    stmt.setInt(2, low);
+                    stmt.setInt(3, high);
+                    stmt.setInt(4, low);
+                    stmt.setInt(5, high);
+                    ResultSet rs = stmt.executeQuery();
+                    if (rs.next()) {
+                        chatId = rs.getInt("id");
+                        created = rs.getBoolean("created");
+                    }
+                }
+                if (chatId < 0) {
+                    conn.commit();
+                    continue;
+                }
+                if (!created) {
+                    conn.commit();
+                    return chatId;
+                }
+
+                // Новый чат: оба участника в той же транзакции; несуществующий собеседник - откат
+                List<Integer> added = insertParticipants(conn, chatId, List.of(low, high));
+                if (added.size() < 2) {
+                    conn.rollback();
+                    return -1;
+                }
+                conn.commit();
+                eventBus.publishMembersAdded(chatId, added);
                 return chatId;
             }
+            return -1;
+
         } catch (SQLException e) {
+            Metrics.sqlError("createPrivateChat");
+            if (conn != null) {
+                try {
+                    conn.rollback();
+                } catch (SQLException ex) {
+                    ex.printStackTrace();
+                }
+            }
             e.printStackTrace();
+            return -1;
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.setAutoCommit(true);
+                    conn.close();
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+            Metrics.query("createPrivateChat", started);
         }
-        return -1;
     }
 
+    // Группа создаётся одной транзакцией: чат и все участники одним INSERT ... SELECT по массиву id.
+    // Повторяющиеся id схлопываются, несуществующие пользователи пропускаются;
+    // если не существует сам создатель, чат не создаётся
     public static int createGroupChat(String name, int createdBy, List<Integer> participantIds) {
         String sql = "INSERT INTO chats (name, is_group, created_by) VALUES (?, true, ?) RETURNING id";
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
+        Set<Integer> memberIds = new LinkedHashSet<>();
+        memberIds.add(createdBy);
+        memberIds.addAll(participantIds);
 
-            stmt.setString(1, name);
-            stmt.setInt(2, createdBy);
-            ResultSet rs = stmt.executeQuery();
+        long started = System.nanoTime();
+        Connection conn = null;
+        try {
+            conn = getConnection();
+            conn.setAutoCommit(false);
 
-            if (rs.next()) {
-                int chatId = rs.getInt(1);
-                // Добавляем создателя
-                addParticipantToChat(chatId, createdBy);
-                // Добавляем участников
-                for (int participantId : participantIds) {
-                    addParticipantToChat(chatId, participantId);
+            int chatId;
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setString(1, name);
+                stmt.setInt(2, createdBy);
+                ResultSet rs = stmt.executeQuery();
+                if (!rs.next()) {
+                    conn.rollback();
+                    return -1;
                 }
-                return chatId;
+                chatId = rs.getInt(1);
             }
+
+            List<Integer> added = insertParticipants(conn, chatId, memberIds);
+            if (!added.contains(createdBy)) {
+                conn.rollback();
+                return -1;
+            }
+            conn.commit();
+
+            eventBus.publishMembersAdded(chatId, added);
+            Metrics.rows("createGroupChat", added.size());
+            return chatId;
+
         } catch (SQLException e) {
+            Metrics.sqlError("createGroupChat");
+            if (conn != null) {
+                try {
+                    conn.rollback();
+                } catch (SQLException ex) {
+                    ex.printStackTrace();
+                }
+            }
             e.printStackTrace();
+            return -1;
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.setAutoCommit(true);
+                    conn.close();
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+            Metrics.query("createGroupChat", started);
         }
-        return -1;
     }
 
-    private static void addParticipantToChat(int chatId, int userId) {
-        String sql = "INSERT INTO chat_participants (chat_id, user_id) VALUES (?, ?)";
+    // Добавление участников в существующий чат; возвращает id реально добавленных
+    // (уже состоящие и несуществующие пользователи пропускаются)
+    public static List<Integer> addChatMembers(int chatId, Collection<Integer> userIds) {
+        long started = System.nanoTime();
+        try (Connection conn = getConnection()) {
+            List<Integer> added = insertParticipants(conn, chatId, userIds);
+            if (!added.isEmpty()) {
+                eventBus.publishMembersAdded(chatId, added);
+            }
+            Metrics.rows("addChatMembers", added.size());
+            return added;
+        } catch (SQLException e) {
+            Metrics.sqlError("addChatMembers");
+            e.printStackTrace();
+            return new ArrayList<>();
+        } finally {
+            Metrics.query("addChatMembers", started);
+        }
+    }
+
+    // Удаление участников одним DELETE; возвращает id реально удалённых
+    public static List<Integer> removeChatMembers(int chatId, Collection<Integer> userIds) {
+        List<Integer> removed = new ArrayList<>();
+        String sql = "DELETE FROM chat_participants WHERE chat_id = ? AND user_id = ANY(?) RETURNING user_id";
+        long started = System.nanoTime();
         try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, chatId);
-            stmt.setInt(2, userId);
-            stmt.executeUpdate();
+            stmt.setArray(2, conn.createArrayOf("integer", userIds.toArray()));
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                removed.add(rs.getInt(1));
+            }
+            Metrics.rows("removeChatMembers", removed.size());
         } catch (SQLException e) {
+            Metrics.sqlError("removeChatMembers");
             e.printStackTrace();
+            return removed;
+        } finally {
+            Metrics.query("removeChatMembers", started);
+        }
+
+        if (!removed.isEmpty()) {
+            eventBus.publishMembersRemoved(chatId, removed);
         }
+        return removed;
     }
 
-    private static List<User> getChatParticipants(int chatId) {
-        List<User> participants = new ArrayList<>();
-        String sql = "SELECT u.* FROM users u " +
-                "JOIN chat_participants cp ON u.id = cp.user_id " +
-                "WHERE cp.chat_id = ?";
-        try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
+    // Один INSERT ... SELECT по массиву: несуществующие id отсекает JOIN с users, дубликаты - ON CONFLICT
+    private static List<Integer> insertParticipants(Connection conn, int chatId, Collection<Integer> userIds)
+            throws SQLException {
+        List<Integer> added = new ArrayList<>();
+        String sql = "INSERT INTO chat_participants (chat_id, user_id) " +
+                "SELECT ?, u.id FROM users u WHERE u.id = ANY(?) " +
+                "ON CONFLICT DO NOTHING RETURNING user_id";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, chatId);
+            stmt.setArray(2, conn.createArrayOf("integer", userIds.toArray()));
             ResultSet rs = stmt.executeQuery();
             while (rs.next()) {
-                participants.add(mapUser(rs));
+                added.add(rs.getInt(1));
+            }
+        }
+        return added;
+    }
+
+    // Удаление на этом или другом узле (через шину событий)
+    static void onParticipantsRemoved(int chatId, List<Integer> userIds) {
+        for (int userId : userIds) {
+            membershipIndex.remove(chatId, userId);
+            MessageHub.removeFromChat(chatId, userId);
+            unreadCounters.removeParticipant(chatId, userId);
+        }
+    }
+
+    // Выход или закрытие последнего WebSocket: участие и счётчики пользователя перечитаются из БД
+    // при следующем обращении, память не растёт с числом когда-либо заходивших пользователей
+    public static void onUserOffline(int userId) {
+        membershipIndex.evict(userId);
+        unreadCounters.evict(userId);
+    }
+
+    // Шина могла пропустить события о составе чатов - индекс участия перечитается из БД
+    static void resetMembershipIndex() {
+        membershipIndex.clear();
+    }
+
+    // Добавление на этом или другом узле (через шину событий), только после коммита:
+    // индекс участия, WebSocket-подписки и счётчики
+    static void onParticipantsAdded(int chatId, List<Integer> userIds) {
+        for (int userId : userIds) {
+            membershipIndex.add(chatId, userId);
+            MessageHub.addToChat(chatId, userId);
+            unreadCounters.addParticipant(chatId, userId);
+        }
+    }
+
+    public static Chat getChatById(int chatId) {
+        String sql = "SELECT * FROM chats WHERE id = ?";
+        long started = System.nanoTime();
+        try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, chatId);
+            ResultSet rs = stmt.executeQuery();
+            if (rs.next()) {
+                return mapChat(rs);
             }
         } catch (SQLException e) {
+            Metrics.sqlError("getChatById");
             e.printStackTrace();
+        } finally {
+            Metrics.query("getChatById", started);
         }
-        return participants;
+        return null;
     }
 
     // Методы для работы с сообщениями
     public static boolean sendMessage(int chatId, int senderId, String content) {
-        String sql = "INSERT INTO messages (chat_id, sender_id, content) VALUES (?, ?, ?)";
+        return insertMessage(chatId, senderId, content) != null;
+    }
+
+    private static Message insertMessage(int chatId, int senderId, String content) {
+        // Возвращаем вставленную строку вместе с именем отправителя для рассылки подписчикам.
+        // Строки участников не трогаем: непрочитанные выводятся из маркера прочтения
+        String sql = "WITH ins AS (INSERT INTO messages (chat_id, sender_id, content) VALUES (?, ?, ?) " +
+                "  RETURNING id, chat_id, sender_id, content, is_deleted, created_at) " +
+                "SELECT ins.*, u.username as sender_name FROM ins JOIN users u ON ins.sender_id = u.id";
+        Message message = null;
+        long started = System.nanoTime();
         try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, chatId);
             stmt.setInt(2, senderId);
             stmt.setString(3, content);
-            return stmt.executeUpdate() > 0;
+            ResultSet rs = stmt.executeQuery();
+            if (rs.next()) {
+                message = mapMessage(rs);
+            }
         } catch (SQLException e) {
+            Metrics.sqlError("insertMessage");
             e.printStackTrace();
-            return false;
+            return null;
+        } finally {
+            Metrics.query("insertMessage", started);
+        }
+
+        if (message != null) {
+            eventBus.publish(message);
+        }
+        return message;
+    }
+
+    // Запись через групповой коммит, если он включён; иначе обычный INSERT
+    public static CompletableFuture<Integer> submitMessage(int chatId, int senderId, String senderName, String content) {
+        if (batchWriter != null) {
+            return batchWriter.submit(chatId, senderId, senderName, content);
+        }
+        Message message = insertMessage(chatId, senderId, content);
+        return CompletableFuture.completedFuture(message != null ? message.getId() : -1);
+    }
+
+    // История сообщений с keyset-пагинацией по (chat_id, id), новые сообщения первыми
+    public static MessagePage getChatMessages(int chatId, Integer beforeId, Integer afterId, int limit) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_MESSAGES_PAGE));
+        List<Message> messages = new ArrayList<>();
+        boolean forward = afterId != null;
+
+        StringBuilder sql = new StringBuilder("SELECT " + MESSAGE_COLUMNS + ", u.username as sender_name FROM messages m " +
+                "JOIN users u ON m.sender_id = u.id " +
+                "WHERE m.chat_id = ? AND m.is_deleted = false ");
+        if (forward) {
+            sql.append("AND m.id > ? ORDER BY m.id ASC LIMIT ?");
+        } else if (beforeId != null) {
+            sql.append("AND m.id < ? ORDER BY m.id DESC LIMIT ?");
+        } else {
+            sql.append("ORDER BY m.id DESC LIMIT ?");
         }
+
+        long started = System.nanoTime();
+        try (Connection conn = getReadConnection(); PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+            int index = 1;
+            stmt.setInt(index++, chatId);
+            if (forward) {
+                stmt.setInt(index++, afterId);
+            } else if (beforeId != null) {
+                stmt.setInt(index++, beforeId);
+            }
+            // Запрашиваем на одну строку больше, чтобы узнать, есть ли ещё страница
+            stmt.setInt(index, pageSize + 1);
+            stmt.setFetchSize(pageSize + 1);
+
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                messages.add(mapMessage(rs));
+            }
+            Metrics.rows("getChatMessages", messages.size());
+        } catch (SQLException e) {
+            Metrics.sqlError("getChatMessages");
+            e.printStackTrace();
+        } finally {
+            Metrics.query("getChatMessages", started);
+        }
+
+        boolean hasMore = messages.size() > pageSize;
+        if (hasMore) {
+            messages.remove(messages.size() - 1);
+        }
+        if (forward) {
+            Collections.reverse(messages);
+        }
+
+        MessagePage page = new MessagePage();
+        page.setMessages(messages);
+        page.setHasMore(hasMore);
+        if (!messages.isEmpty()) {
+            Message newest = messages.get(0);
+            Message oldest = messages.get(messages.size() - 1);
+            page.setPrevCursor(MessagePage.afterCursor(newest.getId()));
+            // При движении вперёд более старые сообщения всегда есть (это afterId)
+            if (hasMore || forward) {
+                page.setNextCursor(MessagePage.beforeCursor(oldest.getId()));
+            }
+        } else if (forward) {
+            page.setPrevCursor(MessagePage.afterCursor(afterId));
+        }
+        return page;
     }
 
-    public static List<Message> getChatMessages(int chatId) {
+    // Полнотекстовый поиск по сообщениям чатов пользователя (или одного чата), новые первыми.
+    // Совпадения ищутся по GIN-индексу на messages.content_tsv, keyset-пагинация по id;
+    // ts_headline считается только для строк страницы. Запрос ограничен statement_timeout
+    public static MessagePage searchMessages(int userId, String query, Integer chatId, Integer beforeId, int limit) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_SEARCH_PAGE));
         List<Message> messages = new ArrayList<>();
-        String sql = "SELECT m.*, u.username as sender_name FROM messages m " +
+        MessagePage page = new MessagePage();
+
+        StringBuilder sql = new StringBuilder("WITH q AS (SELECT websearch_to_tsquery('russian', ?) AS query), " +
+                "hits AS (" +
+                "  SELECT m.id FROM messages m " +
+                "  JOIN chat_participants cp ON cp.chat_id = m.chat_id AND cp.user_id = ?, q " +
+                "  WHERE m.content_tsv @@ q.query AND m.is_deleted = false ");
+        if (chatId != null) {
+            sql.append("AND m.chat_id = ? ");
+        }
+        if (beforeId != null) {
+            sql.append("AND m.id < ? ");
+        }
+        sql.append("  ORDER BY m.id DESC LIMIT ?) " +
+                "SELECT " + MESSAGE_COLUMNS + ", u.username AS sender_name, " +
+                "ts_headline('russian', m.content, q.query, " +
+                "'StartSel=\u0002, StopSel=\u0003, MaxWords=20, MinWords=5, MaxFragments=2') AS snippet " +
+                "FROM hits h JOIN messages m ON m.id = h.id JOIN users u ON u.id = m.sender_id, q " +
+                "ORDER BY m.id DESC");
+
+        long started = System.nanoTime();
+        try (Connection conn = getReadConnection()) {
+            conn.setAutoCommit(false);
+            try (Statement budget = conn.createStatement();
+                 PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+                budget.execute("SET LOCAL statement_timeout = " + SEARCH_TIMEOUT_MS);
+
+                int index = 1;
+                stmt.setString(index++, query);
+                stmt.setInt(index++, userId);
+                if (chatId != null) {
+                    stmt.setInt(index++, chatId);
+                }
+                if (beforeId != null) {
+                    stmt.setInt(index++, beforeId);
+                }
+                stmt.setInt(index, pageSize + 1);
+
+                ResultSet rs = stmt.executeQuery();
+                while (rs.next()) {
+                    Message message = mapMessage(rs);
+                    message.setSnippet(highlightSnippet(rs.getString("snippet")));
+                    messages.add(message);
+                }
+                conn.commit();
+                Metrics.rows("searchMessages", messages.size());
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            Metrics.sqlError("searchMessages");
+            // 57014 - запрос отменён по statement_timeout
+            if ("57014".equals(e.getSQLState())) {
+                AsyncLog.warn("Поиск сообщений превысил " + SEARCH_TIMEOUT_MS + " мс: пользователь " + userId);
+                page.setTimedOut(true);
+            } else {
+                e.printStackTrace();
+            }
+        } finally {
+            Metrics.query("searchMessages", started);
+        }
+
+        boolean hasMore = messages.size() > pageSize;
+        if (hasMore) {
+            messages.remove(messages.size() - 1);
+            page.setNextCursor(MessagePage.beforeCursor(messages.get(messages.size() - 1).getId()));
+        }
+        page.setMessages(messages);
+        page.setHasMore(hasMore);
+        return page;
+    }
+
+    // Фрагмент ts_headline размечен управляющими символами: экранируем HTML
+    // и только потом ставим <mark>, чтобы текст сообщения не попал в разметку
+    private static String highlightSnippet(String raw) {
+        if (raw == null) {
+            return null;
+        }
+        StringBuilder out = new StringBuilder(raw.length() + 32);
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            switch (c) {
+                case '\u0002': out.append("<mark>"); break;
+                case '\u0003': out.append("</mark>"); break;
+                case '<': out.append("&lt;"); break;
+                case '>': out.append("&gt;"); break;
+                case '&': out.append("&amp;"); break;
+                case '"': out.append("&quot;"); break;
+                default: out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
+    public static List<Message> getMessagesByIds(List<Integer> messageIds) {
+        List<Message> messages = new ArrayList<>();
+        String sql = "SELECT " + MESSAGE_COLUMNS + ", u.username as sender_name FROM messages m " +
                 "JOIN users u ON m.sender_id = u.id " +
-                "WHERE m.chat_id = ? AND m.is_deleted = false " +
-                "ORDER BY m.created_at ASC";
+                "WHERE m.id = ANY(?) AND m.is_deleted = false ORDER BY m.id";
+        long started = System.nanoTime();
         try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setInt(1, chatId);
+            stmt.setArray(1, conn.createArrayOf("integer", messageIds.toArray()));
             ResultSet rs = stmt.executeQuery();
             while (rs.next()) {
                 messages.add(mapMessage(rs));
             }
+            Metrics.rows("getMessagesByIds", messages.size());
         } catch (SQLException e) {
+            Metrics.sqlError("getMessagesByIds");
             e.printStackTrace();
+        } finally {
+            Metrics.query("getMessagesByIds", started);
         }
         return messages;
     }
 
-    private static Message getLastMessage(int chatId) {
-        String sql = "SELECT m.*, u.username as sender_name FROM messages m " +
-                "JOIN users u ON m.sender_id = u.id " +
-                "WHERE m.chat_id = ? AND m.is_deleted = false " +
-                "ORDER BY m.created_at DESC LIMIT 1";
+    public static List<Integer> getUserChatIds(int userId) {
+        List<Integer> chatIds = queryUserChatIds(userId);
+        return chatIds != null ? chatIds : new ArrayList<>();
+    }
+
+    // null - ошибка БД: индекс участия не должен принять её за пустой список чатов
+    static List<Integer> queryUserChatIds(int userId) {
+        List<Integer> chatIds = new ArrayList<>();
+        String sql = "SELECT chat_id FROM chat_participants WHERE user_id = ?";
+        long started = System.nanoTime();
+        try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, userId);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                chatIds.add(rs.getInt(1));
+            }
+            Metrics.rows("getUserChatIds", chatIds.size());
+            return chatIds;
+        } catch (SQLException e) {
+            Metrics.sqlError("getUserChatIds");
+            e.printStackTrace();
+            return null;
+        } finally {
+            Metrics.query("getUserChatIds", started);
+        }
+    }
+
+    // Проверка по индексу в памяти; в БД идём только за чатами ещё не загруженного пользователя
+    public static boolean isChatParticipant(int chatId, int userId) {
+        return membershipIndex.isMember(chatId, userId);
+    }
+
+    // Отметка о прочтении до messageId (null - до последнего сообщения чата). Маркер только растёт
+    // и не уходит дальше последнего сообщения чата, какой бы id ни прислал клиент; остаток
+    // непрочитанных считается по хвосту после маркера, обычно он пуст.
+    // Возвращает новый маркер или -1, если пользователь не участник чата
+    public static int markChatRead(int chatId, int userId, Integer messageId) {
+        String sql = "WITH last AS (" +
+                "  SELECT COALESCE(MAX(id) FILTER (WHERE NOT is_deleted), 0) AS max_id, " +
+                "         COALESCE(MAX(id), 0) AS last_id FROM messages WHERE chat_id = ?), " +
+                "target AS (" +
+                "  SELECT GREATEST(cp.last_read_message_id, LEAST(COALESCE(?::int, l.max_id), l.max_id)) AS read_id, " +
+                "         l.last_id " +
+                "  FROM chat_participants cp, last l WHERE cp.chat_id = ? AND cp.user_id = ?) " +
+                "UPDATE chat_participants cp SET last_read_message_id = t.read_id " +
+                "FROM target t WHERE cp.chat_id = ? AND cp.user_id = ? " +
+                "RETURNING cp.last_read_message_id, " + UNREAD_COUNT_SQL + " AS unread_count, " +
+                "t.last_id AS last_message_id";
+        int lastReadId;
+        long started = System.nanoTime();
+        UnreadCounters.Fence fence = unreadCounters.fence(userId);
         try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, chatId);
+            if (messageId != null) {
+                stmt.setInt(2, messageId);
+            } else {
+                stmt.setNull(2, Types.INTEGER);
+            }
+            stmt.setInt(3, chatId);
+            stmt.setInt(4, userId);
+            stmt.setInt(5, chatId);
+            stmt.setInt(6, userId);
             ResultSet rs = stmt.executeQuery();
-            if (rs.next()) {
-                return mapMessage(rs);
+            if (!rs.next()) {
+                return -1;
             }
+            lastReadId = rs.getInt("last_read_message_id");
+            unreadCounters.markRead(fence, chatId,
+                    new UnreadCounters.Seed(rs.getInt("unread_count"), lastReadId, rs.getInt("last_message_id")));
+            fence = null;
         } catch (SQLException e) {
+            Metrics.sqlError("markChatRead");
             e.printStackTrace();
+            return -1;
+        } finally {
+            if (fence != null) {
+                unreadCounters.cancel(fence);
+            }
+            Metrics.query("markChatRead", started);
         }
-        return null;
+
+        MessageHub.publishRead(chatId, userId, lastReadId);
+        return lastReadId;
     }
 
+    // Непрочитанные по чатам пользователя: из памяти, при первом обращении - по маркерам прочтения
+    public static Map<Integer, Integer> getUnreadCounts(int userId) {
+        Map<Integer, Integer> counts = unreadCounters.snapshot(userId);
+        if (counts != null) {
+            return counts;
+        }
+
+        String sql = "SELECT cp.chat_id, cp.last_read_message_id, " + UNREAD_COUNT_SQL + " AS unread_count, " +
+                LAST_MESSAGE_ID_SQL + " AS last_message_id FROM chat_participants cp WHERE cp.user_id = ?";
+        Map<Integer, UnreadCounters.Seed> seeds = new HashMap<>();
+        long started = System.nanoTime();
+        UnreadCounters.Fence fence = unreadCounters.fence(userId);
+        try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, userId);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                seeds.put(rs.getInt("chat_id"), new UnreadCounters.Seed(rs.getInt("unread_count"),
+                        rs.getInt("last_read_message_id"), rs.getInt("last_message_id")));
+            }
+            unreadCounters.load(fence, seeds);
+            fence = null;
+            Metrics.rows("getUnreadCounts", seeds.size());
+        } catch (SQLException e) {
+            Metrics.sqlError("getUnreadCounts");
+            e.printStackTrace();
+            return new HashMap<>();
+        } finally {
+            if (fence != null) {
+                unreadCounters.cancel(fence);
+            }
+            Metrics.query("getUnreadCounts", started);
+        }
+        // Пользователя могли выгрузить сразу после загрузки
+        counts = unreadCounters.snapshot(userId);
+        return counts != null ? counts : new HashMap<>();
+    }
+
+    // Мягкое удаление; непрочитанное сообщение снимается со счётчиков участников на всех узлах
     public static boolean deleteMessage(int messageId) {
-        String sql = "UPDATE messages SET is_deleted = true WHERE id = ?";
+        String sql = "UPDATE messages SET is_deleted = true WHERE id = ? AND is_deleted = false " +
+                "RETURNING chat_id, sender_id";
+        long started = System.nanoTime();
         try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, messageId);
-            return stmt.executeUpdate() > 0;
+            ResultSet rs = stmt.executeQuery();
+            if (!rs.next()) {
+                return false;
+            }
+            eventBus.publishMessageDeleted(rs.getInt("chat_id"), messageId, rs.getInt("sender_id"));
+            return true;
         } catch (SQLException e) {
+            Metrics.sqlError("deleteMessage");
             e.printStackTrace();
             return false;
+        } finally {
+            Metrics.query("deleteMessage", started);
         }
     }
 
     public static Message getMessageById(int messageId) {
-        String sql = "SELECT m.*, u.username as sender_name FROM messages m " +
+        String sql = "SELECT " + MESSAGE_COLUMNS + ", u.username as sender_name FROM messages m " +
                 "JOIN users u ON m.sender_id = u.id " +
                 "WHERE m.id = ?";
+        long started = System.nanoTime();
         try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, messageId);
             ResultSet rs = stmt.executeQuery();
@@ -302,28 +1068,152 @@ public class DatabaseService {
                 return mapMessage(rs);
             }
         } catch (SQLException e) {
+            Metrics.sqlError("getMessageById");
             e.printStackTrace();
+        } finally {
+            Metrics.query("getMessageById", started);
         }
         return null;
     }
 
     // Методы для работы с жалобами (REPORTS)
+    // Жалоба и агрегат очереди модерации по сообщению - одним запросом
     public static boolean createReport(int messageId, int reporterId, String reason) {
-        String sql = "INSERT INTO reports (message_id, reporter_id, reason) VALUES (?, ?, ?)";
+        String sql = "WITH r AS (INSERT INTO reports (message_id, reporter_id, reason) VALUES (?, ?, ?) " +
+                "  RETURNING message_id, created_at) " +
+                "INSERT INTO moderation_queue (message_id, pending_count, first_reported_at, last_reported_at) " +
+                "SELECT message_id, 1, created_at, created_at FROM r " +
+                "ON CONFLICT (message_id) DO UPDATE SET pending_count = moderation_queue.pending_count + 1, " +
+                "  last_reported_at = GREATEST(moderation_queue.last_reported_at, EXCLUDED.last_reported_at)";
+        long started = System.nanoTime();
         try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, messageId);
             stmt.setInt(2, reporterId);
             stmt.setString(3, reason);
             return stmt.executeUpdate() > 0;
         } catch (SQLException e) {
+            Metrics.sqlError("createReport");
             e.printStackTrace();
             return false;
+        } finally {
+            Metrics.query("createReport", started);
         }
     }
 
-    // МЕТОД, КОТОРЫЙ ОТСУТСТВОВАЛ - получение ожидающих жалоб
-    public static List<Report> getPendingReports() {
-        List<Report> reports = new ArrayList<>();
+    // Очередь модерации: ожидающие жалобы, сгруппированные по сообщению, из агрегата moderation_queue.
+    // Keyset-пагинация по (количество, messageId) или (время последней жалобы, messageId) -
+    // страница читается по индексу за одно и то же время при любой глубине очереди
+    // after - разобранный курсор (ModerationPage.decode) или null для первой страницы
+    public static ModerationPage getModerationQueue(String sort, ModerationPage.After after, int limit) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_MODERATION_PAGE));
+        boolean byRecent = ModerationPage.SORT_RECENT.equals(sort);
+        String sortColumn = byRecent ? "q.last_reported_at" : "q.pending_count";
+
+        StringBuilder sql = new StringBuilder("SELECT q.message_id, q.pending_count, q.first_reported_at, " +
+                "q.last_reported_at, m.chat_id, m.sender_id, m.content, m.is_deleted, m.created_at, " +
+                "u.username AS sender_name, lr.reason AS latest_reason " +
+                "FROM moderation_queue q " +
+                "JOIN messages m ON m.id = q.message_id " +
+                "JOIN users u ON u.id = m.sender_id " +
+                "LEFT JOIN LATERAL (" +
+                "  SELECT r.reason FROM reports r WHERE r.message_id = q.message_id AND r.status = 'PENDING' " +
+                "  ORDER BY r.created_at DESC LIMIT 1" +
+                ") lr ON true ");
+        if (after != null) {
+            sql.append("WHERE (").append(sortColumn).append(", q.message_id) < (?, ?) ");
+        }
+        sql.append("ORDER BY ").append(sortColumn).append(" DESC, q.message_id DESC LIMIT ?");
+
+        List<ModerationItem> items = new ArrayList<>();
+        long started = System.nanoTime();
+        try (Connection conn = getReadConnection(); PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+            int index = 1;
+            if (after != null) {
+                if (byRecent) {
+                    stmt.setTimestamp(index++, after.getLastReportedAt());
+                } else {
+                    stmt.setInt(index++, after.getReportCount());
+                }
+                stmt.setInt(index++, after.getMessageId());
+            }
+            stmt.setInt(index, pageSize + 1);
+
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                items.add(mapModerationItem(rs));
+            }
+            Metrics.rows("getModerationQueue", items.size());
+        } catch (SQLException e) {
+            Metrics.sqlError("getModerationQueue");
+            e.printStackTrace();
+        } finally {
+            Metrics.query("getModerationQueue", started);
+        }
+
+        ModerationPage page = new ModerationPage();
+        boolean hasMore = items.size() > pageSize;
+        if (hasMore) {
+            items.remove(items.size() - 1);
+            page.setNextCursor(ModerationPage.cursor(sort, items.get(items.size() - 1)));
+        }
+        page.setItems(items);
+        page.setHasMore(hasMore);
+        return page;
+    }
+
+    // Пересчёт агрегата очереди по затронутым сообщениям после решений по жалобам.
+    // FOR UPDATE ждёт параллельные createReport по этим сообщениям, чтобы не потерять их инкремент
+    static void refreshModerationQueue(Connection conn, Integer[] messageIds) throws SQLException {
+        if (messageIds.length == 0) {
+            return;
+        }
+        Array ids = conn.createArrayOf("integer", messageIds);
+        try (PreparedStatement lock = conn.prepareStatement(
+                "SELECT message_id FROM moderation_queue WHERE message_id = ANY(?) ORDER BY message_id FOR UPDATE")) {
+            lock.setArray(1, ids);
+            lock.executeQuery();
+        }
+        String sql = "WITH agg AS (" +
+                "  SELECT message_id, COUNT(*) AS cnt, MIN(created_at) AS first_at, MAX(created_at) AS last_at " +
+                "  FROM reports WHERE status = 'PENDING' AND message_id = ANY(?) GROUP BY message_id), " +
+                "gone AS (" +
+                "  DELETE FROM moderation_queue q WHERE q.message_id = ANY(?) " +
+                "  AND NOT EXISTS (SELECT 1 FROM agg WHERE agg.message_id = q.message_id)) " +
+                "UPDATE moderation_queue q SET pending_count = agg.cnt, first_reported_at = agg.first_at, " +
+                "  last_reported_at = agg.last_at " +
+                "FROM agg WHERE q.message_id = agg.message_id";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setArray(1, ids);
+            stmt.setArray(2, ids);
+            stmt.executeUpdate();
+        }
+    }
+
+    private static ModerationItem mapModerationItem(ResultSet rs) throws SQLException {
+        ModerationItem item = new ModerationItem();
+        item.setMessageId(rs.getInt("message_id"));
+        item.setReportCount(rs.getInt("pending_count"));
+        item.setFirstReportedAt(rs.getTimestamp("first_reported_at").toLocalDateTime());
+        item.setLastReportedAt(rs.getTimestamp("last_reported_at").toLocalDateTime());
+        item.setLatestReason(rs.getString("latest_reason"));
+
+        Message message = new Message();
+        message.setId(item.getMessageId());
+        message.setChatId(rs.getInt("chat_id"));
+        message.setSenderId(rs.getInt("sender_id"));
+        message.setSenderName(rs.getString("sender_name"));
+        message.setContent(rs.getString("content"));
+        message.setDeleted(rs.getBoolean("is_deleted"));
+        Timestamp createdAt = rs.getTimestamp("created_at");
+        if (createdAt != null) {
+            message.setCreatedAt(createdAt.toLocalDateTime());
+        }
+        item.setMessage(message);
+        return item;
+    }
+
+    // Ожидающие жалобы потоком: строки читаются из курсора по мере записи ответа
+    public static RowCursor<Report> streamPendingReports() throws SQLException {
         String sql = "SELECT r.*, u1.username as reporter_name, u2.username as reported_user_name, " +
                 "m.content as message_content, m.sender_id as message_sender_id " +
                 "FROM reports r " +
@@ -332,104 +1222,141 @@ public class DatabaseService {
                 "JOIN users u2 ON m.sender_id = u2.id " +
                 "WHERE r.status = 'PENDING' " +
                 "ORDER BY r.created_at DESC";
-        try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
-            ResultSet rs = stmt.executeQuery();
-            while (rs.next()) {
-                Report report = mapReport(rs);
+        return openCursor("getPendingReports", sql, DatabaseService::mapPendingReport);
+    }
 
-                // Создаем объект сообщения
-                Message message = new Message();
-                message.setId(rs.getInt("message_id"));
-                message.setContent(rs.getString("message_content"));
-                message.setSenderId(rs.getInt("message_sender_id"));
-                message.setSenderName(rs.getString("reported_user_name"));
-                report.setMessage(message);
+    private static Report mapPendingReport(ResultSet rs) throws SQLException {
+        Report report = mapReport(rs);
 
-                // Создаем объект пользователя
-                User reportedUser = new User();
-                reportedUser.setId(rs.getInt("message_sender_id"));
-                reportedUser.setUsername(rs.getString("reported_user_name"));
-                report.setReportedUser(reportedUser);
+        // Создаем объект сообщения
+        Message message = new Message();
+        message.setId(rs.getInt("message_id"));
+        message.setContent(rs.getString("message_content"));
+        message.setSenderId(rs.getInt("message_sender_id"));
+        message.setSenderName(rs.getString("reported_user_name"));
+        report.setMessage(message);
+
+        // Создаем объект пользователя
+        User reportedUser = new User();
+        reportedUser.setId(rs.getInt("message_sender_id"));
+        reportedUser.setUsername(rs.getString("reported_user_name"));
+        report.setReportedUser(reportedUser);
 
-                reports.add(report);
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-        return reports;
+        return report;
     }
 
     // МЕТОД, КОТОРЫЙ ОТСУТСТВОВАЛ - обработка жалобы
     public static boolean processReport(int reportId, String decision, int days, int adminId) {
+        List<ReportOutcome> outcomes = decideReports(List.of(reportId), null, null, decision, days);
+        return outcomes != null && !outcomes.isEmpty() && ReportOutcome.APPLIED.equals(outcomes.get(0).getResult());
+    }
+
+    // Пакетное решение по жалобам одной транзакцией. Область - ровно одно из: список id жалоб,
+    // все жалобы на сообщение, все жалобы на сообщения пользователя. Решения:
+    // dismiss - отклонить; block_permanent - блокировка навсегда; иначе при days > 0 - блокировка
+    // на days дней, при days = 0 - одобрить без блокировки. Каждый автор блокируется один раз.
+    // По сообщению и пользователю берутся только ожидающие жалобы, не больше MAX_BULK_REPORTS за вызов:
+    // полный результат значит, что могли остаться ещё. null - ошибка БД, транзакция откатана
+    public static List<ReportOutcome> decideReports(List<Integer> reportIds, Integer messageId, Integer userId,
+                                                    String decision, int days) {
+        boolean dismiss = "dismiss".equals(decision);
+        boolean permanent = "block_permanent".equals(decision);
+        boolean block = !dismiss && (permanent || days > 0);
+        String status = dismiss ? "REJECTED" : "APPROVED";
+        String adminDecision = dismiss ? "Жалоба отклонена"
+                : permanent ? "Пользователь заблокирован навсегда"
+                : block ? "Пользователь заблокирован на " + days + " дней"
+                : "Жалоба одобрена";
+
+        String selectSql = "SELECT r.id, r.status, r.message_id, m.sender_id FROM reports r " +
+                "JOIN messages m ON m.id = r.message_id WHERE " +
+                (reportIds != null ? "r.id = ANY(?) "
+                        : (messageId != null ? "r.message_id = ? " : "m.sender_id = ? ") + "AND r.status = 'PENDING' ") +
+                "ORDER BY r.id " + (reportIds != null ? "" : "LIMIT " + MAX_BULK_REPORTS + " ") + "FOR UPDATE OF r";
+        String updateReportsSql = "UPDATE reports r SET status = ?, admin_decision = ? " +
+                "FROM unnest(?::int[]) AS t(id) WHERE r.id = t.id";
+        // Постоянную блокировку временная не ослабляет, более длинную временную - не сокращает
+        String blockUsersSql = "UPDATE users u SET is_blocked = true, blocked_until = CASE " +
+                "  WHEN ? THEN NULL " +
+                "  WHEN u.is_blocked AND u.blocked_until IS NULL THEN NULL " +
+                "  ELSE GREATEST(COALESCE(u.blocked_until, NOW()), NOW() + make_interval(days => ?)) END " +
+                "FROM unnest(?::int[]) AS b(user_id) WHERE u.id = b.user_id";
+
+        Map<Integer, ReportOutcome> outcomes = new LinkedHashMap<>();
+        if (reportIds != null) {
+            for (int reportId : reportIds) {
+                outcomes.put(reportId, new ReportOutcome(reportId, ReportOutcome.NOT_FOUND, null));
+            }
+        }
+        List<Integer> pendingIds = new ArrayList<>();
+        Set<Integer> messageIds = new LinkedHashSet<>();
+        Set<Integer> senderIds = new LinkedHashSet<>();
+        Map<Integer, Integer> senderByReport = new HashMap<>();
+
+        long started = System.nanoTime();
         Connection conn = null;
         try {
             conn = getConnection();
             conn.setAutoCommit(false);
 
-            // Обновляем статус жалобы
-            String updateReportSql = "UPDATE reports SET status = ?, admin_decision = ? WHERE id = ?";
-            PreparedStatement updateReportStmt = conn.prepareStatement(updateReportSql);
-
-            String status = "APPROVED";
-            String adminDecision = "Жалоба одобрена";
-
-            if ("dismiss".equals(decision)) {
-                status = "REJECTED";
-                adminDecision = "Жалоба отклонена";
-            }
-
-            updateReportStmt.setString(1, status);
-            updateReportStmt.setString(2, adminDecision);
-            updateReportStmt.setInt(3, reportId);
-            updateReportStmt.executeUpdate();
-
-            // Если жалоба одобрена и требуется блокировка
-            if ("APPROVED".equals(status) && !"dismiss".equals(decision)) {
-                // Получаем ID пользователя из жалобы
-                String getUserIdSql = "SELECT m.sender_id FROM reports r " +
-                        "JOIN messages m ON r.message_id = m.id " +
-                        "WHERE r.id = ?";
-                PreparedStatement getUserIdStmt = conn.prepareStatement(getUserIdSql);
-                getUserIdStmt.setInt(1, reportId);
-                ResultSet rs = getUserIdStmt.executeQuery();
-
-                if (rs.next()) {
-                    int userId = rs.getInt("sender_id");
-
-                    // Блокируем пользователя
-                    String blockUserSql;
-                    if ("block_permanent".equals(decision)) {
-                        blockUserSql = "UPDATE users SET is_blocked = true, blocked_until = NULL WHERE id = ?";
-                    } else {
-                        blockUserSql = "UPDATE users SET is_blocked = true, blocked_until = NOW() + INTERVAL '? days' WHERE id = ?";
+            try (PreparedStatement select = conn.prepareStatement(selectSql)) {
+                if (reportIds != null) {
+                    select.setArray(1, conn.createArrayOf("integer", reportIds.toArray()));
+                } else {
+                    select.setInt(1, messageId != null ? messageId : userId);
+                }
+                ResultSet rs = select.executeQuery();
+                while (rs.next()) {
+                    int id = rs.getInt("id");
+                    String current = rs.getString("status");
+                    if (!"PENDING".equals(current)) {
+                        outcomes.put(id, new ReportOutcome(id, ReportOutcome.ALREADY_PROCESSED, current));
+                        continue;
                     }
+                    pendingIds.add(id);
+                    messageIds.add(rs.getInt("message_id"));
+                    senderIds.add(rs.getInt("sender_id"));
+                    senderByReport.put(id, rs.getInt("sender_id"));
+                }
+            }
 
-                    PreparedStatement blockUserStmt = conn.prepareStatement(blockUserSql);
-                    if ("block_permanent".equals(decision)) {
-                        blockUserStmt.setInt(1, userId);
-                    } else {
-                        blockUserStmt.setInt(1, days);
-                        blockUserStmt.setInt(2, userId);
+            if (!pendingIds.isEmpty()) {
+                try (PreparedStatement update = conn.prepareStatement(updateReportsSql)) {
+                    update.setString(1, status);
+                    update.setString(2, adminDecision);
+                    update.setArray(3, conn.createArrayOf("integer", pendingIds.toArray()));
+                    update.executeUpdate();
+                }
+                if (block) {
+                    try (PreparedStatement blockUsers = conn.prepareStatement(blockUsersSql)) {
+                        blockUsers.setBoolean(1, permanent);
+                        blockUsers.setInt(2, days);
+                        blockUsers.setArray(3, conn.createArrayOf("integer", senderIds.toArray()));
+                        blockUsers.executeUpdate();
                     }
-                    blockUserStmt.executeUpdate();
-
-                    // Обновляем решение администратора
-                    String finalDecision = "block_permanent".equals(decision) ?
-                            "Пользователь заблокирован навсегда" :
-                            "Пользователь заблокирован на " + days + " дней";
-
-                    PreparedStatement updateDecisionStmt = conn.prepareStatement(
-                            "UPDATE reports SET admin_decision = ? WHERE id = ?");
-                    updateDecisionStmt.setString(1, finalDecision);
-                    updateDecisionStmt.setInt(2, reportId);
-                    updateDecisionStmt.executeUpdate();
                 }
+                refreshModerationQueue(conn, messageIds.toArray(new Integer[0]));
             }
 
             conn.commit();
-            return true;
+            if (block) {
+                for (int senderId : senderIds) {
+                    userCache.invalidate(senderId);
+                }
+            }
+
+            for (int id : pendingIds) {
+                ReportOutcome outcome = new ReportOutcome(id, ReportOutcome.APPLIED, status);
+                if (block) {
+                    outcome.setBlockedUserId(senderByReport.get(id));
+                }
+                outcomes.put(id, outcome);
+            }
+            Metrics.rows("decideReports", pendingIds.size());
+            return new ArrayList<>(outcomes.values());
 
         } catch (SQLException e) {
+            Metrics.sqlError("decideReports");
             e.printStackTrace();
             if (conn != null) {
                 try {
@@ -438,7 +1365,7 @@ public class DatabaseService {
                     ex.printStackTrace();
                 }
             }
-            return false;
+            return null;
         } finally {
             if (conn != null) {
                 try {
@@ -448,37 +1375,77 @@ public class DatabaseService {
                     e.printStackTrace();
                 }
             }
+            Metrics.query("decideReports", started);
         }
     }
 
     // Методы для администратора
-    public static List<User> getAllUsers() {
-        List<User> users = new ArrayList<>();
-        String sql = "SELECT * FROM users WHERE role = 'USER' ORDER BY username";
-        try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
-            ResultSet rs = stmt.executeQuery();
-            while (rs.next()) {
-                users.add(mapUser(rs));
+    // Без хэша пароля: mapUser его не читает
+    public static RowCursor<User> streamAllUsers() throws SQLException {
+        String sql = "SELECT id, username, role, is_blocked, blocked_until, created_at " +
+                "FROM users WHERE role = 'USER' ORDER BY username";
+        return openCursor("getAllUsers", sql, DatabaseService::mapUser);
+    }
+
+    // Вся история чата по возрастанию id для выгрузки; content_tsv не читаем
+    public static RowCursor<Message> streamChatMessages(int chatId) throws SQLException {
+        String sql = "SELECT m.id, m.chat_id, m.sender_id, u.username AS sender_name, m.content, m.is_deleted, m.created_at " +
+                "FROM messages m JOIN users u ON m.sender_id = u.id " +
+                "WHERE m.chat_id = ? AND m.is_deleted = false ORDER BY m.id";
+        return openCursor("exportChatMessages", sql, DatabaseService::mapMessage, chatId);
+    }
+
+    // Серверный курсор PgJDBC: fetchSize работает только вне autocommit и для forward-only результата.
+    // Соединение, запрос и замер передаются курсору и освобождаются его close()
+    static <T> RowCursor<T> openCursor(String name, String sql, RowCursor.RowMapper<T> mapper,
+                                       Object... params) throws SQLException {
+        long started = System.nanoTime();
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        try {
+            conn = getReadConnection();
+            conn.setAutoCommit(false);
+            stmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            stmt.setFetchSize(STREAM_FETCH_SIZE);
+            for (int i = 0; i < params.length; i++) {
+                stmt.setObject(i + 1, params[i]);
             }
+            ResultSet rs = stmt.executeQuery();
+            return new RowCursor<>(name, conn, stmt, rs, mapper, started);
         } catch (SQLException e) {
-            e.printStackTrace();
+            Metrics.sqlError(name);
+            if (stmt != null) {
+                stmt.close();
+            }
+            if (conn != null) {
+                conn.rollback();
+                conn.setAutoCommit(true);
+                conn.close();
+            }
+            Metrics.query(name, started);
+            throw e;
         }
-        return users;
     }
 
     public static boolean unblockUser(int userId) {
         String sql = "UPDATE users SET is_blocked = false, blocked_until = NULL WHERE id = ?";
+        long started = System.nanoTime();
         try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, userId);
-            return stmt.executeUpdate() > 0;
+            boolean updated = stmt.executeUpdate() > 0;
+            userCache.invalidate(userId);
+            return updated;
         } catch (SQLException e) {
+            Metrics.sqlError("unblockUser");
             e.printStackTrace();
             return false;
+        } finally {
+            Metrics.query("unblockUser", started);
         }
     }
 
     // Вспомогательные методы маппинга
-    private static User mapUser(ResultSet rs) throws SQLException {
+    static User mapUser(ResultSet rs) throws SQLException {
         User user = new User();
         user.setId(rs.getInt("id"));
         user.setUsername(rs.getString("username"));
@@ -513,7 +1480,46 @@ public class DatabaseService {
         return chat;
     }
 
-    private static Message mapMessage(ResultSet rs) throws SQLException {
+    // Участники из агрегированных массивов getUserChats: в списке чатов нужны только id и имя
+    private static List<User> mapParticipants(ResultSet rs) throws SQLException {
+        List<User> participants = new ArrayList<>();
+        Array idsArray = rs.getArray("user_ids");
+        if (idsArray == null) {
+            return participants;
+        }
+
+        Integer[] ids = (Integer[]) idsArray.getArray();
+        String[] usernames = (String[]) rs.getArray("usernames").getArray();
+
+        for (int i = 0; i < ids.length; i++) {
+            participants.add(User.builder().id(ids[i]).username(usernames[i]).build());
+        }
+        return participants;
+    }
+
+    // Последнее сообщение из LATERAL-подзапроса getUserChats
+    private static Message mapLastMessage(ResultSet rs, int chatId) throws SQLException {
+        int messageId = rs.getInt("lm_id");
+        if (rs.wasNull()) {
+            return null;
+        }
+
+        Message message = new Message();
+        message.setId(messageId);
+        message.setChatId(chatId);
+        message.setSenderId(rs.getInt("lm_sender_id"));
+        message.setSenderName(rs.getString("lm_sender_name"));
+        message.setContent(rs.getString("lm_content"));
+
+        Timestamp createdAt = rs.getTimestamp("lm_created_at");
+        if (createdAt != null) {
+            message.setCreatedAt(createdAt.toLocalDateTime());
+        }
+
+        return message;
+    }
+
+    static Message mapMessage(ResultSet rs) throws SQLException {
         Message message = new Message();
         message.setId(rs.getInt("id"));
         message.setChatId(rs.getInt("chat_id"));
@@ -548,60 +1554,133 @@ public class DatabaseService {
         return report;
     }
 
-    public static List<User> searchUsers(String query, int currentUserId) {
-        List<User> users = new ArrayList<>();
-        String sql = "SELECT * FROM users WHERE username ILIKE ? AND id != ? AND role = 'USER'";
-        try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, "%" + query + "%");
-            stmt.setInt(2, currentUserId);
+    // Без pg_trgm поиск по подстроке читал бы всю таблицу users - тогда ищем только по префиксу.
+    // Проверяется один раз; ошибка проверки - повтор при следующем поиске
+    private static boolean isTrigramSearchAvailable() {
+        Boolean available = trigramSearch;
+        if (available != null) {
+            return available;
+        }
+        try (Connection conn = getReadConnection()) {
+            available = SchemaMigrator.hasValidIndex(conn, "idx_users_username_trgm");
+        } catch (SQLException e) {
+            AsyncLog.warn("Не удалось проверить триграммный индекс: " + e.getMessage());
+            return false;
+        }
+        if (!available) {
+            AsyncLog.warn("Индекс idx_users_username_trgm отсутствует (нет расширения pg_trgm?) - " +
+                    "поиск пользователей только по префиксу");
+        }
+        trigramSearch = available;
+        return available;
+    }
+
+    // Поиск по подстроке через GIN-индекс pg_trgm на users.username.
+    // Порядок: точное совпадение, затем префикс, затем подстрока; не больше USER_SEARCH_LIMIT строк.
+    // Триграммный индекс не работает для шаблонов короче 3 символов - первые нажатия клавиш
+    // ищут только по префиксу через индекс lower(username) text_pattern_ops
+    public static List<UserSummary> searchUsers(String query, int currentUserId) {
+        List<UserSummary> users = new ArrayList<>();
+        String trimmed = query.trim();
+        if (trimmed.isEmpty()) {
+            return users;
+        }
+
+        String escaped = escapeLike(trimmed);
+        boolean prefixOnly = trimmed.length() < MIN_TRIGRAM_QUERY || !isTrigramSearchAvailable();
+        String sql = prefixOnly
+                ? "SELECT id, username FROM users " +
+                  "WHERE lower(username) LIKE lower(?) AND id != ? AND role = 'USER' " +
+                  "ORDER BY CASE WHEN lower(username) = lower(?) THEN 0 ELSE 1 END, " +
+                  "length(username), username " +
+                  "LIMIT ?"
+                : "SELECT id, username FROM users " +
+                  "WHERE username ILIKE ? AND id != ? AND role = 'USER' " +
+                  "ORDER BY CASE " +
+                  "  WHEN lower(username) = lower(?) THEN 0 " +
+                  "  WHEN username ILIKE ? THEN 1 " +
+                  "  ELSE 2 END, " +
+                  "length(username), username " +
+                  "LIMIT ?";
+        long started = System.nanoTime();
+        try (Connection conn = getReadConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
+            int index = 1;
+            stmt.setString(index++, prefixOnly ? escaped + "%" : "%" + escaped + "%");
+            stmt.setInt(index++, currentUserId);
+            stmt.setString(index++, trimmed);
+            if (!prefixOnly) {
+                stmt.setString(index++, escaped + "%");
+            }
+            stmt.setInt(index, USER_SEARCH_LIMIT);
             ResultSet rs = stmt.executeQuery();
             while (rs.next()) {
-                users.add(mapUser(rs));
+                users.add(new UserSummary(rs.getInt("id"), rs.getString("username")));
             }
+            Metrics.rows("searchUsers", users.size());
         } catch (SQLException e) {
+            Metrics.sqlError("searchUsers");
             e.printStackTrace();
+        } finally {
+            Metrics.query("searchUsers", started);
         }
         return users;
     }
 
+    // Экранирование спецсимволов LIKE, чтобы "%" и "_" в запросе искались буквально
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
     // Проверка, является ли пользователь уже контактом
     public static boolean isContact(int userId, int contactId) {
         String sql = "SELECT 1 FROM contacts WHERE user_id = ? AND contact_id = ?";
+        long started = System.nanoTime();
         try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, userId);
             stmt.setInt(2, contactId);
             ResultSet rs = stmt.executeQuery();
             return rs.next();
         } catch (SQLException e) {
+            Metrics.sqlError("isContact");
             e.printStackTrace();
             return false;
+        } finally {
+            Metrics.query("isContact", started);
         }
     }
 
     // Проверка, есть ли уже запрос
     public static boolean hasFriendRequest(int fromUserId, int toUserId) {
         String sql = "SELECT 1 FROM friend_requests WHERE from_user_id = ? AND to_user_id = ? AND status = 'PENDING'";
+        long started = System.nanoTime();
         try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, fromUserId);
             stmt.setInt(2, toUserId);
             ResultSet rs = stmt.executeQuery();
             return rs.next();
         } catch (SQLException e) {
+            Metrics.sqlError("hasFriendRequest");
             e.printStackTrace();
             return false;
+        } finally {
+            Metrics.query("hasFriendRequest", started);
         }
     }
 
     // Отправка запроса в друзья
     public static boolean sendFriendRequest(int fromUserId, int toUserId) {
         String sql = "INSERT INTO friend_requests (from_user_id, to_user_id, status) VALUES (?, ?, 'PENDING')";
+        long started = System.nanoTime();
         try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, fromUserId);
             stmt.setInt(2, toUserId);
             return stmt.executeUpdate() > 0;
         } catch (SQLException e) {
+            Metrics.sqlError("sendFriendRequest");
             e.printStackTrace();
             return false;
+        } finally {
+            Metrics.query("sendFriendRequest", started);
         }
     }
 
@@ -611,20 +1690,26 @@ public class DatabaseService {
         String sql = "SELECT fr.*, u.username as from_username FROM friend_requests fr " +
                 "JOIN users u ON fr.from_user_id = u.id " +
                 "WHERE fr.to_user_id = ? AND fr.status = 'PENDING'";
+        long started = System.nanoTime();
         try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, userId);
             ResultSet rs = stmt.executeQuery();
             while (rs.next()) {
                 requests.add(mapFriendRequest(rs));
             }
+            Metrics.rows("getIncomingRequests", requests.size());
         } catch (SQLException e) {
+            Metrics.sqlError("getIncomingRequests");
             e.printStackTrace();
+        } finally {
+            Metrics.query("getIncomingRequests", started);
         }
         return requests;
     }
 
     // Принятие запроса в друзья
     public static boolean acceptFriendRequest(int requestId, int userId) {
+        long started = System.nanoTime();
         Connection conn = null;
         try {
             conn = getConnection();
@@ -639,7 +1724,7 @@ public class DatabaseService {
 
             if (rs.next()) {
                 int fromUserId = rs.getInt("from_user_id");
-                System.out.println("✅ Принятие запроса: " + requestId + ", от пользователя: " + fromUserId + ", к пользователю: " + userId);
+                AsyncLog.debug("Принятие запроса: " + requestId + ", от пользователя: " + fromUserId + ", к пользователю: " + userId);
 
                 // Обновляем статус запроса
                 String updateSql = "UPDATE friend_requests SET status = 'ACCEPTED' WHERE id = ?";
@@ -652,16 +1737,17 @@ public class DatabaseService {
                 addContact(conn, fromUserId, userId); // Отправитель добавляет текущего пользователя
 
                 conn.commit();
-                System.out.println("✅ Запрос принят, контакты созданы");
+                AsyncLog.info("Запрос в друзья " + requestId + " принят, контакты созданы");
                 return true;
             } else {
-                System.out.println("❌ Запрос не найден или уже обработан");
+                AsyncLog.debug("Запрос в друзья " + requestId + " не найден или уже обработан");
                 conn.rollback();
                 return false;
             }
 
         } catch (SQLException e) {
-            System.out.println("❌ Ошибка принятия запроса: " + e.getMessage());
+            Metrics.sqlError("acceptFriendRequest");
+            AsyncLog.error("Ошибка принятия запроса: " + e.getMessage());
             if (conn != null) {
                 try {
                     conn.rollback();
@@ -680,6 +1766,7 @@ public class DatabaseService {
                     e.printStackTrace();
                 }
             }
+            Metrics.query("acceptFriendRequest", started);
         }
     }
 
@@ -690,7 +1777,7 @@ public class DatabaseService {
         stmt.setInt(2, contactId);
         int affected = stmt.executeUpdate();
         if (affected > 0) {
-            System.out.println("✅ Добавлен контакт: " + userId + " → " + contactId);
+            AsyncLog.debug("Добавлен контакт: " + userId + " → " + contactId);
         }
     }
 
@@ -0,0 +1,143 @@
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+// Множество int без упаковки в Integer: открытая адресация с линейным пробированием.
+// 0 - признак пустой ячейки, поэтому хранятся только ненулевые значения (id из БД > 0).
+// Не потокобезопасно: синхронизацию обеспечивает владелец (MembershipIndex)
+public class IntHashSet {
+    private static final int EMPTY = 0;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private int[] keys;
+    private int size;
+
+    public IntHashSet() {
+        this(4);
+    }
+
+    public IntHashSet(int expectedSize) {
+        keys = new int[capacityFor(expectedSize)];
+    }
+
+    public boolean add(int key) {
+        checkKey(key);
+        if (size + 1 > keys.length * LOAD_FACTOR) {
+            resize(keys.length * 2);
+        }
+        int mask = keys.length - 1;
+        int index = hash(key) & mask;
+        while (keys[index] != EMPTY) {
+            if (keys[index] == key) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        size++;
+        return true;
+    }
+
+    public boolean contains(int key) {
+        int[] table = keys;
+        int mask = table.length - 1;
+        int index = hash(key) & mask;
+        int current;
+        while ((current = table[index]) != EMPTY) {
+            if (current == key) {
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    // Удаление со сдвигом следующих элементов цепочки, без "надгробий"
+    public boolean remove(int key) {
+        if (key == EMPTY) {
+            return false;
+        }
+        int mask = keys.length - 1;
+        int index = hash(key) & mask;
+        while (keys[index] != key) {
+            if (keys[index] == EMPTY) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+
+        int gap = index;
+        int next = (gap + 1) & mask;
+        while (keys[next] != EMPTY) {
+            int home = hash(keys[next]) & mask;
+            // Элемент можно перенести в дыру, если его домашняя ячейка не лежит между дырой и ним
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[gap] = EMPTY;
+        size--;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void forEach(IntConsumer action) {
+        for (int key : keys) {
+            if (key != EMPTY) {
+                action.accept(key);
+            }
+        }
+    }
+
+    public int[] toArray() {
+        int[] result = new int[size];
+        int i = 0;
+        for (int key : keys) {
+            if (key != EMPTY) {
+                result[i++] = key;
+            }
+        }
+        return result;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    private void resize(int capacity) {
+        int[] old = keys;
+        keys = new int[capacity];
+        size = 0;
+        for (int key : old) {
+            if (key != EMPTY) {
+                add(key);
+            }
+        }
+    }
+
+    static int capacityFor(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(2, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        return Math.max(capacity, 4);
+    }
+
+    // Перемешивание битов (фибоначчиево хеширование): последовательные id не образуют кластеров
+    static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static void checkKey(int key) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("0 нельзя хранить в IntHashSet");
+        }
+    }
+}
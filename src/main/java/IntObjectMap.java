@@ -0,0 +1,125 @@
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+// Отображение int -> объект без упаковки ключей, открытая адресация как в IntHashSet. Не потокобезопасно
+public class IntObjectMap<V> {
+    private static final int EMPTY = 0;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private int[] keys;
+    private Object[] values;
+    private int size;
+
+    public IntObjectMap() {
+        this(16);
+    }
+
+    public IntObjectMap(int expectedSize) {
+        int capacity = IntHashSet.capacityFor(expectedSize);
+        keys = new int[capacity];
+        values = new Object[capacity];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int[] table = keys;
+        Object[] vals = values;
+        int mask = table.length - 1;
+        int index = IntHashSet.hash(key) & mask;
+        int current;
+        while ((current = table[index]) != EMPTY) {
+            if (current == key) {
+                return (V) vals[index];
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    public V computeIfAbsent(int key, IntFunction<V> factory) {
+        V value = get(key);
+        if (value == null) {
+            value = factory.apply(key);
+            put(key, value);
+        }
+        return value;
+    }
+
+    public void put(int key, V value) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("0 нельзя использовать как ключ IntObjectMap");
+        }
+        if (size + 1 > keys.length * LOAD_FACTOR) {
+            resize(keys.length * 2);
+        }
+        int mask = keys.length - 1;
+        int index = IntHashSet.hash(key) & mask;
+        while (keys[index] != EMPTY) {
+            if (keys[index] == key) {
+                values[index] = value;
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        values[index] = value;
+        size++;
+    }
+
+    // Удаление со сдвигом следующих элементов цепочки, как в IntHashSet
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        if (key == EMPTY) {
+            return null;
+        }
+        int mask = keys.length - 1;
+        int index = IntHashSet.hash(key) & mask;
+        while (keys[index] != key) {
+            if (keys[index] == EMPTY) {
+                return null;
+            }
+            index = (index + 1) & mask;
+        }
+        V removed = (V) values[index];
+
+        int gap = index;
+        int next = (gap + 1) & mask;
+        while (keys[next] != EMPTY) {
+            int home = IntHashSet.hash(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[gap] = EMPTY;
+        values[gap] = null;
+        size--;
+        return removed;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[capacity];
+        values = new Object[capacity];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                put(oldKeys[i], (V) oldValues[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+// Единственный ObjectMapper приложения: ответы Javalin, рассылка по WebSocket и бенчмарки.
+// Доступ к свойствам - сгенерированные Blackbird лямбды вместо рефлексии, null-поля не пишутся,
+// LocalDateTime - числом миллисекунд эпохи (часовой пояс сервера, как у TIMESTAMP в БД)
+public class Json {
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+    private static final ObjectMapper MAPPER = create();
+
+    public static ObjectMapper mapper() {
+        return MAPPER;
+    }
+
+    static ObjectMapper create() {
+        SimpleModule compactDates = new SimpleModule("compact-dates");
+        compactDates.addSerializer(LocalDateTime.class, new EpochMillisSerializer());
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.registerModule(new JavaTimeModule());
+        // Зарегистрирован позже JavaTimeModule - его сериализатор LocalDateTime имеет приоритет
+        objectMapper.registerModule(compactDates);
+        objectMapper.registerModule(new BlackbirdModule());
+        objectMapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        return objectMapper;
+    }
+
+    private static class EpochMillisSerializer extends StdSerializer<LocalDateTime> {
+        private static final long serialVersionUID = 1L;
+
+        EpochMillisSerializer() {
+            super(LocalDateTime.class);
+        }
+
+        @Override
+        public void serialize(LocalDateTime value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeNumber(value.atZone(ZONE).toInstant().toEpochMilli());
+        }
+    }
+}
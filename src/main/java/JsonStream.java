@@ -0,0 +1,42 @@
+import com.fasterxml.jackson.core.JsonGenerator;
+import io.javalin.http.Context;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Map;
+
+// Ответ-массив JSON, записываемый по строке прямо из курсора в поток ответа:
+// память не зависит от числа строк
+public class JsonStream {
+    @FunctionalInterface
+    public interface CursorSource<T> {
+        RowCursor<T> open() throws SQLException;
+    }
+
+    public static <T> void writeArray(Context ctx, CursorSource<T> source) throws IOException {
+        RowCursor<T> cursor;
+        try {
+            cursor = source.open();
+        } catch (SQLException e) {
+            // Ещё ничего не записано - можно ответить ошибкой
+            e.printStackTrace();
+            ctx.status(500).json(Map.of("success", false, "message", "Внутренняя ошибка сервера"));
+            return;
+        }
+
+        ctx.contentType("application/json");
+        try (RowCursor<T> rows = cursor;
+             JsonGenerator gen = Json.mapper().getFactory().createGenerator(ctx.outputStream())) {
+            // При ошибке посреди выгрузки ответ должен остаться невалидным JSON, а не "дописанным" массивом
+            gen.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+            gen.writeStartArray();
+            while (rows.hasNext()) {
+                gen.writeObject(rows.next());
+            }
+            gen.writeEndArray();
+        } catch (IllegalStateException e) {
+            // Заголовки могли уже уйти клиенту - статус не поменять, обрываем ответ
+            AsyncLog.error("Потоковая выгрузка " + ctx.path() + " прервана: " + e.getMessage());
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Лог-линейная гистограмма (как HdrHistogram): каждая степень двойки делится на SUB_BUCKETS
+// равных корзин, относительная погрешность не больше 1/SUB_BUCKETS. По умолчанию - задержки
+// от 1 мкс до ~17 с. Граница корзины включительная (le в Prometheus): значение v попадает
+// в первую корзину с границей >= v. Запись без блокировок и без выделения памяти
+public class LatencyHistogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int DEFAULT_MIN_SHIFT = 10; // единица 2^10 нс ~ 1 мкс
+    private static final int DEFAULT_MAX_SHIFT = 34; // последняя конечная граница 2^34 нс ~ 17 с
+
+    private final int minShift;
+    private final int buckets;
+    private final AtomicLongArray counts;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        this(DEFAULT_MIN_SHIFT, DEFAULT_MAX_SHIFT);
+    }
+
+    // Конечные границы - от 2^minShift до 2^maxShift, дальше корзина +Inf.
+    // minShift = 0 подходит для счётчиков (например, числа строк): границы 0, 1, 2, ... 8, 9, 10, ...
+    public LatencyHistogram(int minShift, int maxShift) {
+        this.minShift = minShift;
+        // Линейные корзины 0..SUB_BUCKETS единиц, затем по SUB_BUCKETS на каждую степень двойки, затем +Inf
+        this.buckets = SUB_BUCKETS + 1 + (maxShift - minShift - SUB_BITS) * SUB_BUCKETS + 1;
+        this.counts = new AtomicLongArray(buckets);
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucketIndex(nanos));
+        count.increment();
+        sumNanos.add(nanos);
+    }
+
+    private int bucketIndex(long nanos) {
+        // Число единиц с округлением вверх: граница корзины включительная
+        long units = (nanos >>> minShift) + ((nanos & ((1L << minShift) - 1)) != 0 ? 1 : 0);
+        if (units <= SUB_BUCKETS) {
+            return (int) units;
+        }
+        long m = units - 1;
+        int power = 63 - Long.numberOfLeadingZeros(m) - SUB_BITS;
+        int sub = (int) (m >>> power) - SUB_BUCKETS;
+        long index = SUB_BUCKETS + 1 + (long) power * SUB_BUCKETS + sub;
+        return (int) Math.min(index, buckets - 1);
+    }
+
+    public int getBucketCount() {
+        return buckets;
+    }
+
+    // Верхняя граница корзины в наносекундах (включительно); у последней корзины границы нет
+    public long getUpperBoundNanos(int bucket) {
+        if (bucket == buckets - 1) {
+            return Long.MAX_VALUE;
+        }
+        if (bucket <= SUB_BUCKETS) {
+            return (long) bucket << minShift;
+        }
+        int k = bucket - SUB_BUCKETS - 1;
+        int power = k / SUB_BUCKETS;
+        int sub = k % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << power) << minShift;
+    }
+
+    public long getBucket(int bucket) {
+        return counts.get(bucket);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSumNanos() {
+        return sumNanos.sum();
+    }
+
+    // Оценка перцентиля по верхней границе корзины
+    public long percentileNanos(double percentile) {
+        long total = getCount();
+        if (total == 0) {
+            return 0;
+        }
+        long threshold = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < buckets; i++) {
+            seen += counts.get(i);
+            if (seen >= threshold) {
+                return getUpperBoundNanos(i);
+            }
+        }
+        return getUpperBoundNanos(buckets - 1);
+    }
+}
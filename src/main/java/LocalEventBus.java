@@ -0,0 +1,33 @@
+import java.util.List;
+
+// Шина для одного экземпляра приложения: сразу отдаёт сообщение в MessageHub
+public class LocalEventBus implements MessageEventBus {
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void publish(Message message) {
+        DatabaseService.getUnreadCounters().onMessage(message.getChatId(), message.getId(), message.getSenderId());
+        MessageHub.publish(message);
+    }
+
+    @Override
+    public void publishMessageDeleted(int chatId, int messageId, int senderId) {
+        DatabaseService.getUnreadCounters().onMessageDeleted(chatId, messageId, senderId);
+    }
+
+    @Override
+    public void publishMembersAdded(int chatId, List<Integer> userIds) {
+        DatabaseService.onParticipantsAdded(chatId, userIds);
+    }
+
+    @Override
+    public void publishMembersRemoved(int chatId, List<Integer> userIds) {
+        DatabaseService.onParticipantsRemoved(chatId, userIds);
+    }
+
+    @Override
+    public void stop() {
+    }
+}
@@ -2,18 +2,45 @@ import io.javalin.Javalin;
 import io.javalin.http.staticfiles.Location;
 import io.javalin.rendering.template.JavalinThymeleaf;
 import io.javalin.json.JavalinJackson;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
-import com.fasterxml.jackson.core.JsonGenerator;
-import com.fasterxml.jackson.databind.SerializationFeature;
 import org.thymeleaf.TemplateEngine;
 import org.thymeleaf.templateresolver.ClassLoaderTemplateResolver;
 import java.util.HashMap;
 import java.util.Map;
 
 public class Main {
+    private static final long READ_YOUR_WRITES_MS = DatabaseService.getConfig().getInt("db.readYourWritesMs", 5_000);
+
     public static void main(String[] args) {
-        ObjectMapper objectMapper = createObjectMapper();
+        // Схема и индексы до первого запроса; проверка планов - в фоне, только предупреждения
+        if (DatabaseService.getConfig().getBoolean("db.migrate", true)) {
+            SchemaMigrator.migrate();
+        }
+        if (DatabaseService.getConfig().getBoolean("db.selfCheck", true)) {
+            Thread selfCheck = new Thread(SchemaMigrator::selfCheck, "schema-self-check");
+            selfCheck.setDaemon(true);
+            selfCheck.start();
+        }
+        DatabaseService.warmUp();
+
+        // Шина событий: eventBus=postgres для нескольких экземпляров за балансировщиком
+        MessageEventBus eventBus = "postgres".equalsIgnoreCase(DatabaseService.getConfig().getString("eventBus", "local"))
+                ? new PostgresEventBus(DatabaseService.getConfig().getJdbcUrl(),
+                        DatabaseService.getConfig().getUsername(), DatabaseService.getConfig().getPassword())
+                : new LocalEventBus();
+        DatabaseService.setEventBus(eventBus);
+        eventBus.start();
+
+        // Групповой коммит сообщений: batch.enabled=true. При остановке очередь дописывается в БД
+        if (DatabaseService.getConfig().getBoolean("batch.enabled", false)) {
+            MessageBatchWriter batchWriter = new MessageBatchWriter(
+                    DatabaseService.getConfig().getInt("batch.capacity", 10_000),
+                    DatabaseService.getConfig().getInt("batch.maxSize", 256),
+                    DatabaseService.getConfig().getInt("batch.flushMs", 5),
+                    eventBus);
+            DatabaseService.setBatchWriter(batchWriter);
+            batchWriter.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(batchWriter::stop, "message-batch-drain"));
+        }
 
         Javalin app = Javalin.create(config -> {
             // Статические файлы (CSS, JS) из public
@@ -27,12 +54,24 @@ public class Main {
             config.fileRenderer(new JavalinThymeleaf(createTemplateEngine()));
 
             //настройка JSON mapper
-            config.jsonMapper(new JavalinJackson(objectMapper, true));
+            config.jsonMapper(new JavalinJackson(Json.mapper(), true));
+
+            // Задержка каждого запроса в гистограмму маршрута для /metrics и в асинхронный журнал доступа
+            config.requestLogger.http((ctx, executionTimeMs) -> {
+                Metrics.recordRequest(ctx, executionTimeMs);
+                AsyncLog.access(ctx, executionTimeMs);
+            });
+
+            // Обработчики на виртуальных потоках Java 21
+            config.useVirtualThreads = DatabaseService.VIRTUAL_THREADS;
         });
 
         // API маршруты
         AuthController.setupRoutes(app);
         ChatController.setupRoutes(app);
+        AdminController.setupRoutes(app);
+        Metrics.setupRoutes(app);
+        MessageHub.setupRoutes(app);
 
         // HTML маршруты
         app.get("/", ctx -> {
@@ -69,7 +108,40 @@ public class Main {
             ctx.header("Access-Control-Allow-Origin", "*");
             ctx.header("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS");
             ctx.header("Access-Control-Allow-Headers", "Content-Type, Authorization");
-            System.out.println(ctx.method() + " " + ctx.path());
+        });
+
+        // Частота изменяющих запросов: отказ 429 до обращения к БД
+        app.before(RateLimiter::check);
+
+        // Read-your-writes: после изменяющего запроса чтения сессии какое-то время идут на primary
+        app.before(ctx -> {
+            Long lastWriteAt = ctx.sessionAttribute("lastWriteAt");
+            ReplicaRouter.pinToPrimary(lastWriteAt != null
+                    && System.currentTimeMillis() - lastWriteAt < READ_YOUR_WRITES_MS);
+        });
+
+        app.after(ctx -> {
+            ReplicaRouter.clearPin();
+            if (!"GET".equals(ctx.method().name()) && ctx.sessionAttribute("user") != null) {
+                ctx.sessionAttribute("lastWriteAt", System.currentTimeMillis());
+            }
+        });
+
+        // Актуальный статус блокировки пользователя сессии из кэша, без запроса на каждый вызов
+        app.before(ctx -> {
+            User sessionUser = ctx.sessionAttribute("user");
+            if (sessionUser == null) {
+                return;
+            }
+            User fresh = DatabaseService.getUserById(sessionUser.getId());
+            if (fresh == null) {
+                return;
+            }
+            if (fresh.isCurrentlyBlocked()) {
+                ctx.sessionAttribute("user", null);
+            } else if (fresh != sessionUser) {
+                ctx.sessionAttribute("user", fresh);
+            }
         });
 
         // Запуск сервера
@@ -80,13 +152,6 @@ public class Main {
         showNetworkInfo(port);
     }
 
-    private static ObjectMapper createObjectMapper() {
-        ObjectMapper objectMapper = new ObjectMapper();
-        objectMapper.registerModule(new JavaTimeModule());
-        objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
-        return objectMapper;
-    }
-
     private static TemplateEngine createTemplateEngine() {
         TemplateEngine templateEngine = new TemplateEngine();
         ClassLoaderTemplateResolver templateResolver = new ClassLoaderTemplateResolver();
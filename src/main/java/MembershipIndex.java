@@ -0,0 +1,131 @@
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+// Индекс участия в чатах в памяти: пользователь -> множество чатов на примитивных структурах.
+// Чаты пользователя загружаются из БД при первой проверке, дальше индекс обновляется событиями
+// шины о добавлении и удалении участников (MessageEventBus) с любого узла. Поэтому для
+// загруженного пользователя из памяти берутся и положительный, и отрицательный ответ.
+// Выход пользователя или закрытие его последнего WebSocket выгружает его из индекса
+public class MembershipIndex {
+    // Результат поиска в памяти
+    private static final int NOT_LOADED = 0;
+    private static final int MEMBER = 1;
+    private static final int NOT_MEMBER = 2;
+
+    private final StampedLock lock = new StampedLock();
+    private final IntObjectMap<IntHashSet> userChats = new IntObjectMap<>(1024);
+    private final IntHashSet loadedUsers = new IntHashSet(1024);
+    // Меняется при удалении участников и сбросе: загрузка, прочитавшая БД до этого, повторяется
+    private volatile long generation;
+
+    public boolean isMember(int chatId, int userId) {
+        int state = lookup(chatId, userId);
+        if (state == NOT_LOADED) {
+            load(userId);
+            state = lookup(chatId, userId);
+        }
+        return state == MEMBER;
+    }
+
+    public void add(int chatId, int userId) {
+        long stamp = lock.writeLock();
+        try {
+            userChats.computeIfAbsent(userId, id -> new IntHashSet()).add(chatId);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void remove(int chatId, int userId) {
+        long stamp = lock.writeLock();
+        try {
+            IntHashSet chats = userChats.get(userId);
+            if (chats != null) {
+                chats.remove(chatId);
+            }
+            generation++;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Пользователь ушёл: при следующей проверке его чаты перечитаются из БД
+    public void evict(int userId) {
+        long stamp = lock.writeLock();
+        try {
+            userChats.remove(userId);
+            loadedUsers.remove(userId);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Полный сброс: события шины могли быть пропущены (например, при переподключении LISTEN),
+    // чаты пользователей перечитаются из БД при следующих проверках
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            userChats.clear();
+            loadedUsers.clear();
+            generation++;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Оптимистичное чтение без блокировки; при гонке с записью - повтор под read-lock
+    private int lookup(int chatId, int userId) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                int state = lookupUnlocked(chatId, userId);
+                if (lock.validate(stamp)) {
+                    return state;
+                }
+            } catch (RuntimeException e) {
+                // Массивы прочитаны посреди resize - повторяем под блокировкой
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return lookupUnlocked(chatId, userId);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private int lookupUnlocked(int chatId, int userId) {
+        IntHashSet chats = userChats.get(userId);
+        if (chats != null && chats.contains(chatId)) {
+            return MEMBER;
+        }
+        return loadedUsers.contains(userId) ? NOT_MEMBER : NOT_LOADED;
+    }
+
+    // Объединяем с уже известным: add() мог пройти, пока шёл запрос к БД.
+    // Если за это время кого-то удалили, снимок мог устареть - читаем заново.
+    // При ошибке БД пользователь остаётся незагруженным, отказ не кэшируется
+    private void load(int userId) {
+        while (true) {
+            long seen = generation;
+            List<Integer> chatIds = DatabaseService.queryUserChatIds(userId);
+            if (chatIds == null) {
+                return;
+            }
+            long stamp = lock.writeLock();
+            try {
+                if (generation != seen) {
+                    continue;
+                }
+                IntHashSet chats = userChats.computeIfAbsent(userId, id -> new IntHashSet(chatIds.size()));
+                for (int chatId : chatIds) {
+                    chats.add(chatId);
+                }
+                loadedUsers.add(userId);
+                return;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+    }
+}
@@ -8,6 +8,7 @@ public class Message {
     private String content;
     private boolean isDeleted;
     private LocalDateTime createdAt;
+    private String snippet; // фрагмент с подсветкой, только в результатах поиска
 
     // Конструкторы
     public Message() {
@@ -55,6 +56,9 @@ public class Message {
     public LocalDateTime getCreatedAt() { return createdAt; }
     public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
 
+    public String getSnippet() { return snippet; }
+    public void setSnippet(String snippet) { this.snippet = snippet; }
+
     // Бизнес-логика
     public String getDisplayContent() {
         return isDeleted ? "Сообщение удалено" : content;
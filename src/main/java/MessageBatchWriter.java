@@ -0,0 +1,171 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+// Групповая запись сообщений: один коммит на пачку вместо одного на сообщение
+public class MessageBatchWriter {
+    private static final String INSERT_SQL = "INSERT INTO messages (chat_id, sender_id, content) VALUES (?, ?, ?)";
+
+    private final BlockingQueue<PendingMessage> queue;
+    private final int maxBatchSize;
+    private final long flushIntervalNanos;
+    private final MessageEventBus eventBus;
+    private volatile boolean running;
+    private Thread writerThread;
+
+    public MessageBatchWriter(int capacity, int maxBatchSize, int flushIntervalMs, MessageEventBus eventBus) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.maxBatchSize = maxBatchSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        this.eventBus = eventBus;
+    }
+
+    public void start() {
+        running = true;
+        writerThread = new Thread(this::writeLoop, "message-batch-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    // Новые сообщения больше не принимаются, уже поставленные в очередь дописываются в БД
+    public void stop() {
+        running = false;
+        if (writerThread == null) {
+            return;
+        }
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Будущее завершается id сообщения после коммита пачки
+    public CompletableFuture<Integer> submit(int chatId, int senderId, String senderName, String content) {
+        PendingMessage pending = new PendingMessage(new Message(chatId, senderId, content));
+        pending.message.setSenderName(senderName);
+        if (!running) {
+            return CompletableFuture.failedFuture(new RejectedExecutionException("Запись сообщений остановлена"));
+        }
+        if (!queue.offer(pending)) {
+            return CompletableFuture.failedFuture(new RejectedExecutionException("Очередь записи сообщений переполнена"));
+        }
+        return pending.future;
+    }
+
+    private void writeLoop() {
+        List<PendingMessage> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingMessage first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                // Добираем пачку, пока не истёк интервал или не набран максимум
+                long deadline = System.nanoTime() + flushIntervalNanos;
+                while (batch.size() < maxBatchSize) {
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= maxBatchSize || remaining <= 0) {
+                        break;
+                    }
+                    PendingMessage next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                flush(batch);
+            } catch (InterruptedException e) {
+                // Собранная часть пачки не теряется
+                running = false;
+                if (!batch.isEmpty()) {
+                    flush(batch);
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<PendingMessage> batch) {
+        try {
+            insertBatch(batch);
+        } catch (SQLException e) {
+            // Одна плохая строка не должна ронять всю пачку - пишем по одной
+            AsyncLog.warn("Ошибка пакетной записи " + batch.size() + " сообщений, запись по одному: " + e.getMessage());
+            for (PendingMessage pending : batch) {
+                try {
+                    insertBatch(List.of(pending));
+                    complete(pending);
+                } catch (SQLException ex) {
+                    pending.future.completeExceptionally(ex);
+                }
+            }
+            return;
+        }
+
+        for (PendingMessage pending : batch) {
+            complete(pending);
+        }
+    }
+
+    private void complete(PendingMessage pending) {
+        pending.future.complete(pending.message.getId());
+        eventBus.publish(pending.message);
+    }
+
+    private void insertBatch(List<PendingMessage> batch) throws SQLException {
+        try (Connection conn = DatabaseService.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(INSERT_SQL, new String[]{"id", "created_at"})) {
+                for (PendingMessage pending : batch) {
+                    stmt.setInt(1, pending.message.getChatId());
+                    stmt.setInt(2, pending.message.getSenderId());
+                    stmt.setString(3, pending.message.getContent());
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+
+                // Ключи возвращаются в порядке строк пачки
+                ResultSet keys = stmt.getGeneratedKeys();
+                int index = 0;
+                while (keys.next() && index < batch.size()) {
+                    Message message = batch.get(index++).message;
+                    message.setId(keys.getInt("id"));
+                    Timestamp createdAt = keys.getTimestamp("created_at");
+                    if (createdAt != null) {
+                        message.setCreatedAt(createdAt.toLocalDateTime());
+                    }
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    private static class PendingMessage {
+        private final Message message;
+        private final CompletableFuture<Integer> future = new CompletableFuture<>();
+
+        PendingMessage(Message message) {
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+import java.util.List;
+
+// Шина событий о новых сообщениях: доставляет их локальным подписчикам MessageHub
+public interface MessageEventBus {
+    void start();
+
+    void publish(Message message);
+
+    // Сообщение мягко удалено (уже закоммичено): каждый узел снимает его со счётчиков непрочитанных
+    void publishMessageDeleted(int chatId, int messageId, int senderId);
+
+    // Участники добавлены в чат (уже закоммичено): каждый узел заносит их в индекс участия,
+    // подписывает их WebSocket-соединения и заводит счётчики непрочитанных
+    void publishMembersAdded(int chatId, List<Integer> userIds);
+
+    // Участники удалены из чата (уже закоммичено): каждый узел сбрасывает их членство,
+    // WebSocket-подписки и счётчики непрочитанных
+    void publishMembersRemoved(int chatId, List<Integer> userIds);
+
+    void stop();
+}
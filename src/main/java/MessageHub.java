@@ -0,0 +1,244 @@
+import io.javalin.Javalin;
+import io.javalin.websocket.WsContext;
+import org.eclipse.jetty.websocket.api.WriteCallback;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Доставка новых сообщений подключённым клиентам через WebSocket.
+// Запись неблокирующая: у соединения не больше одной отправки в полёте, следующая начинается
+// из обратного вызова Jetty. Клиент, не принявший кадр за ws.writeTimeoutMs, отключается
+public class MessageHub {
+    private static final int SEND_QUEUE_CAPACITY = 256;
+    private static final int POLICY_VIOLATION = 1008;
+    private static final long WRITE_TIMEOUT_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(DatabaseService.getConfig().getInt("ws.writeTimeoutMs", 10_000));
+
+    private static final Map<Integer, Set<ClientConnection>> chatSubscribers = new ConcurrentHashMap<>();
+    private static final Map<Integer, Set<ClientConnection>> userConnections = new ConcurrentHashMap<>();
+    private static final Map<String, ClientConnection> connections = new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "ws-write-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        watchdog.scheduleWithFixedDelay(MessageHub::evictStalled, 1, 1, TimeUnit.SECONDS);
+    }
+
+    private static final ObjectMapper objectMapper = Json.mapper();
+
+    public static void setupRoutes(Javalin app) {
+        app.ws("/ws/chat", ws -> {
+            ws.onConnect(ctx -> {
+                User user = ctx.sessionAttribute("user");
+                if (user == null) {
+                    ctx.closeSession(POLICY_VIOLATION, "Not authenticated");
+                    return;
+                }
+                register(ctx, user.getId());
+            });
+            ws.onClose(ctx -> unregister(ctx.sessionId()));
+            ws.onError(ctx -> unregister(ctx.sessionId()));
+        });
+    }
+
+    // Доставка локальным подписчикам; вызывается из MessageEventBus
+    public static void publish(Message message) {
+        Set<ClientConnection> subscribers = chatSubscribers.get(message.getChatId());
+        if (subscribers == null || subscribers.isEmpty()) {
+            return;
+        }
+
+        String payload;
+        try {
+            payload = objectMapper.writeValueAsString(Map.of("type", "message", "message", message));
+        } catch (JsonProcessingException e) {
+            AsyncLog.error("Не удалось сериализовать сообщение " + message.getId(), e);
+            return;
+        }
+
+        for (ClientConnection connection : subscribers) {
+            connection.enqueue(payload);
+        }
+    }
+
+    // Отметка о прочтении для остальных участников чата
+    public static void publishRead(int chatId, int userId, int lastReadMessageId) {
+        Set<ClientConnection> subscribers = chatSubscribers.get(chatId);
+        if (subscribers == null || subscribers.isEmpty()) {
+            return;
+        }
+
+        String payload;
+        try {
+            payload = objectMapper.writeValueAsString(Map.of("type", "read", "chatId", chatId,
+                    "userId", userId, "lastReadMessageId", lastReadMessageId));
+        } catch (JsonProcessingException e) {
+            AsyncLog.error("Не удалось сериализовать отметку о прочтении чата " + chatId, e);
+            return;
+        }
+
+        for (ClientConnection connection : subscribers) {
+            if (connection.userId != userId) {
+                connection.enqueue(payload);
+            }
+        }
+    }
+
+    public static boolean hasSubscribers(int chatId) {
+        Set<ClientConnection> subscribers = chatSubscribers.get(chatId);
+        return subscribers != null && !subscribers.isEmpty();
+    }
+
+    // Подписка уже подключённых участников на новый чат
+    public static void addToChat(int chatId, int userId) {
+        Set<ClientConnection> userSockets = userConnections.get(userId);
+        if (userSockets == null) {
+            return;
+        }
+        for (ClientConnection connection : userSockets) {
+            subscribe(chatId, connection);
+        }
+    }
+
+    // Отписка всех соединений пользователя от чата, из которого его удалили
+    public static void removeFromChat(int chatId, int userId) {
+        Set<ClientConnection> userSockets = userConnections.get(userId);
+        if (userSockets == null) {
+            return;
+        }
+        for (ClientConnection connection : userSockets) {
+            connection.chatIds.remove(chatId);
+            chatSubscribers.computeIfPresent(chatId, (id, set) -> {
+                set.remove(connection);
+                return set.isEmpty() ? null : set;
+            });
+        }
+    }
+
+    // Отправка, висящая дольше таймаута, - клиент перестал читать из сокета
+    private static void evictStalled() {
+        long now = System.nanoTime();
+        for (ClientConnection connection : connections.values()) {
+            long startedAt = connection.writeStartedAt;
+            if (startedAt != 0 && now - startedAt > WRITE_TIMEOUT_NANOS) {
+                AsyncLog.warn("Клиент не принимает данные, отключён: пользователь " + connection.userId);
+                connection.evict();
+            }
+        }
+    }
+
+    private static void register(WsContext ctx, int userId) {
+        ClientConnection connection = new ClientConnection(ctx, userId);
+        connections.put(ctx.sessionId(), connection);
+        userConnections.computeIfAbsent(userId, id -> ConcurrentHashMap.newKeySet()).add(connection);
+
+        List<Integer> chatIds = DatabaseService.getUserChatIds(userId);
+        for (int chatId : chatIds) {
+            subscribe(chatId, connection);
+        }
+    }
+
+    private static void subscribe(int chatId, ClientConnection connection) {
+        chatSubscribers.computeIfAbsent(chatId, id -> ConcurrentHashMap.newKeySet()).add(connection);
+        connection.chatIds.add(chatId);
+    }
+
+    private static void unregister(String sessionId) {
+        ClientConnection connection = connections.remove(sessionId);
+        if (connection == null) {
+            return;
+        }
+        connection.closed.set(true);
+
+        for (int chatId : connection.chatIds) {
+            chatSubscribers.computeIfPresent(chatId, (id, set) -> {
+                set.remove(connection);
+                return set.isEmpty() ? null : set;
+            });
+        }
+        Set<ClientConnection> remaining = userConnections.computeIfPresent(connection.userId, (id, set) -> {
+            set.remove(connection);
+            return set.isEmpty() ? null : set;
+        });
+        if (remaining == null) {
+            DatabaseService.onUserOffline(connection.userId);
+        }
+    }
+
+    // Соединение с собственной ограниченной очередью отправки
+    private static class ClientConnection implements WriteCallback {
+        private final WsContext ctx;
+        private final int userId;
+        private final Set<Integer> chatIds = ConcurrentHashMap.newKeySet();
+        private final Queue<String> queue = new ArrayBlockingQueue<>(SEND_QUEUE_CAPACITY);
+        private final AtomicBoolean sending = new AtomicBoolean(false);
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+        // Начало текущей отправки (nanoTime), 0 - отправки нет
+        private volatile long writeStartedAt;
+
+        ClientConnection(WsContext ctx, int userId) {
+            this.ctx = ctx;
+            this.userId = userId;
+        }
+
+        void enqueue(String payload) {
+            if (closed.get()) {
+                return;
+            }
+            // Очередь переполнена - клиент не успевает читать, отключаем его
+            if (!queue.offer(payload)) {
+                AsyncLog.warn("Медленный клиент отключён: пользователь " + userId);
+                evict();
+                return;
+            }
+            sendNext();
+        }
+
+        private void sendNext() {
+            while (!closed.get() && sending.compareAndSet(false, true)) {
+                String payload = queue.poll();
+                if (payload != null) {
+                    writeStartedAt = System.nanoTime();
+                    ctx.session.getRemote().sendString(payload, this);
+                    return;
+                }
+                sending.set(false);
+                // Сообщение могло прийти между poll и сбросом флага
+                if (queue.isEmpty()) {
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void writeSuccess() {
+            writeStartedAt = 0;
+            sending.set(false);
+            sendNext();
+        }
+
+        @Override
+        public void writeFailed(Throwable error) {
+            writeStartedAt = 0;
+            evict();
+        }
+
+        // Без кадра закрытия: он встал бы в очередь за зависшей записью
+        void evict() {
+            unregister(ctx.sessionId());
+            ctx.session.disconnect();
+        }
+    }
+}
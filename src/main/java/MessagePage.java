@@ -0,0 +1,77 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+public class MessagePage {
+    private List<Message> messages;
+    private String nextCursor; // более старые сообщения
+    private String prevCursor; // более новые сообщения
+    private boolean hasMore;
+    private boolean timedOut; // поиск не уложился в бюджет времени
+
+    // Конструкторы
+    public MessagePage() {
+        this.messages = new ArrayList<>();
+    }
+
+    public MessagePage(List<Message> messages, String nextCursor, String prevCursor, boolean hasMore) {
+        this.messages = messages;
+        this.nextCursor = nextCursor;
+        this.prevCursor = prevCursor;
+        this.hasMore = hasMore;
+    }
+
+    // Геттеры и сеттеры
+    public List<Message> getMessages() { return messages; }
+    public void setMessages(List<Message> messages) { this.messages = messages; }
+
+    public String getNextCursor() { return nextCursor; }
+    public void setNextCursor(String nextCursor) { this.nextCursor = nextCursor; }
+
+    public String getPrevCursor() { return prevCursor; }
+    public void setPrevCursor(String prevCursor) { this.prevCursor = prevCursor; }
+
+    public boolean isHasMore() { return hasMore; }
+    public void setHasMore(boolean hasMore) { this.hasMore = hasMore; }
+
+    public boolean isTimedOut() { return timedOut; }
+    public void setTimedOut(boolean timedOut) { this.timedOut = timedOut; }
+
+    // Курсор: "b:<id>" (старше id) или "a:<id>" (новее id), закодированный в base64
+    public static String beforeCursor(int messageId) {
+        return encode("b:" + messageId);
+    }
+
+    public static String afterCursor(int messageId) {
+        return encode("a:" + messageId);
+    }
+
+    public static Integer decodeBefore(String cursor) {
+        return decode(cursor, "b:");
+    }
+
+    public static Integer decodeAfter(String cursor) {
+        return decode(cursor, "a:");
+    }
+
+    private static String encode(String raw) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Integer decode(String cursor, String prefix) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            if (!raw.startsWith(prefix)) {
+                return null;
+            }
+            return Integer.parseInt(raw.substring(prefix.length()));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
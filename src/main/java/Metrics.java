@@ -0,0 +1,188 @@
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Метрики маршрутов Javalin и методов DatabaseService в текстовом формате Prometheus (/metrics).
+// Запись - только атомарные счётчики в заранее созданных гистограммах
+public class Metrics {
+    private static final HandlerType[] METHODS = HandlerType.values();
+
+    // Внутри гистограммы - мелкие лог-линейные корзины, наружу - фиксированный грубый набор границ,
+    // чтобы каждая серия не давала сотни временных рядов. Значение корзины le - сумма мелких
+    // корзин с границей не больше le, то есть погрешность - не больше ширины одной мелкой корзины
+    private static final long[] LATENCY_BOUNDS_NANOS = {
+            100_000L, 250_000L, 500_000L, 1_000_000L, 2_500_000L, 5_000_000L, 10_000_000L, 25_000_000L,
+            50_000_000L, 100_000_000L, 250_000_000L, 500_000_000L, 1_000_000_000L, 2_500_000_000L,
+            5_000_000_000L, 10_000_000_000L};
+    private static final long[] ENQUEUE_BOUNDS_NANOS = {
+            1_000L, 2_000L, 5_000L, 10_000L, 25_000L, 50_000L, 100_000L, 250_000L, 1_000_000L, 10_000_000L};
+    private static final long[] ROW_BOUNDS = {
+            0, 1, 2, 5, 10, 20, 50, 100, 200, 500, 1_000, 5_000, 10_000, 100_000};
+
+    private static final Map<String, LatencyHistogram[]> routes = new ConcurrentHashMap<>();
+    private static final Map<String, QueryStats> queries = new ConcurrentHashMap<>();
+
+    public static void setupRoutes(Javalin app) {
+        app.get("/metrics", Metrics::render);
+    }
+
+    // Вызывается из requestLogger Javalin после ответа
+    public static void recordRequest(Context ctx, float executionTimeMs) {
+        String route;
+        try {
+            route = ctx.endpointHandlerPath();
+        } catch (Exception e) {
+            route = "unmatched";
+        }
+        LatencyHistogram[] byMethod = routes.get(route);
+        if (byMethod == null) {
+            byMethod = routes.computeIfAbsent(route, r -> new LatencyHistogram[METHODS.length]);
+        }
+        int method = ctx.method().ordinal();
+        LatencyHistogram histogram = byMethod[method];
+        if (histogram == null) {
+            synchronized (byMethod) {
+                histogram = byMethod[method];
+                if (histogram == null) {
+                    histogram = new LatencyHistogram();
+                    byMethod[method] = histogram;
+                }
+            }
+        }
+        histogram.record((long) (executionTimeMs * 1_000_000L));
+    }
+
+    // Замер метода DatabaseService: startedNanos - System.nanoTime() перед запросом.
+    // Без объекта-таймера на каждый вызов: только поиск в карте и атомарные счётчики
+    public static void query(String name, long startedNanos) {
+        stats(name).latency.record(System.nanoTime() - startedNanos);
+    }
+
+    public static void rows(String name, int count) {
+        stats(name).rows.record(count);
+    }
+
+    // SQLException перехвачена в DatabaseService и не пробрасывается - считаем её здесь
+    public static void sqlError(String name) {
+        stats(name).errors.increment();
+    }
+
+    private static QueryStats stats(String name) {
+        QueryStats stats = queries.get(name);
+        return stats != null ? stats : queries.computeIfAbsent(name, n -> new QueryStats());
+    }
+
+    static class QueryStats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LatencyHistogram rows = new LatencyHistogram(0, 20); // до ~1 млн строк
+        final LongAdder errors = new LongAdder();
+    }
+
+    private static void render(Context ctx) {
+        StringBuilder out = new StringBuilder(16 * 1024);
+
+        out.append("# TYPE maxon_http_request_duration_seconds histogram\n");
+        for (Map.Entry<String, LatencyHistogram[]> route : routes.entrySet()) {
+            LatencyHistogram[] byMethod = route.getValue();
+            for (int i = 0; i < byMethod.length; i++) {
+                if (byMethod[i] != null) {
+                    String labels = "method=\"" + METHODS[i].name() + "\",route=\"" + escape(route.getKey()) + "\"";
+                    appendHistogram(out, "maxon_http_request_duration_seconds", labels, byMethod[i],
+                            LATENCY_BOUNDS_NANOS, 1e-9);
+                }
+            }
+        }
+
+        out.append("# TYPE maxon_db_query_duration_seconds histogram\n");
+        for (Map.Entry<String, QueryStats> query : queries.entrySet()) {
+            appendHistogram(out, "maxon_db_query_duration_seconds", "query=\"" + query.getKey() + "\"",
+                    query.getValue().latency, LATENCY_BOUNDS_NANOS, 1e-9);
+        }
+
+        out.append("# TYPE maxon_db_query_rows histogram\n");
+        for (Map.Entry<String, QueryStats> query : queries.entrySet()) {
+            if (query.getValue().rows.getCount() > 0) {
+                appendHistogram(out, "maxon_db_query_rows", "query=\"" + query.getKey() + "\"",
+                        query.getValue().rows, ROW_BOUNDS, 1);
+            }
+        }
+
+        out.append("# TYPE maxon_db_query_errors_total counter\n");
+        for (Map.Entry<String, QueryStats> query : queries.entrySet()) {
+            out.append("maxon_db_query_errors_total{query=\"").append(query.getKey()).append("\"} ")
+                    .append(query.getValue().errors.sum()).append('\n');
+        }
+
+        PoolMetrics pool = DatabaseService.getPoolMetrics();
+        appendGauge(out, "maxon_db_pool_active_connections", pool.getActiveConnections());
+        appendGauge(out, "maxon_db_pool_idle_connections", pool.getIdleConnections());
+        appendGauge(out, "maxon_db_pool_total_connections", pool.getTotalConnections());
+        appendGauge(out, "maxon_db_pool_pending_threads", pool.getPendingThreads());
+        out.append("# TYPE maxon_db_pool_connection_timeouts_total counter\n")
+                .append("maxon_db_pool_connection_timeouts_total ").append(pool.getTimeouts()).append('\n');
+        out.append("# TYPE maxon_db_pool_acquire_seconds histogram\n");
+        appendHistogram(out, "maxon_db_pool_acquire_seconds", "", pool.getAcquireTime(), LATENCY_BOUNDS_NANOS, 1e-9);
+
+        UserCache cache = DatabaseService.getUserCache();
+        out.append("# TYPE maxon_user_cache_hits_total counter\n")
+                .append("maxon_user_cache_hits_total ").append(cache.getHits()).append('\n');
+        out.append("# TYPE maxon_user_cache_misses_total counter\n")
+                .append("maxon_user_cache_misses_total ").append(cache.getMisses()).append('\n');
+        appendGauge(out, "maxon_user_cache_size", cache.size());
+
+        // Стоимость записи в журнал на потоке запроса и потерянные при переполнении события
+        out.append("# TYPE maxon_log_enqueue_seconds histogram\n");
+        appendHistogram(out, "maxon_log_enqueue_seconds", "", AsyncLog.getEnqueueTime(), ENQUEUE_BOUNDS_NANOS, 1e-9);
+        out.append("# TYPE maxon_log_dropped_total counter\n")
+                .append("maxon_log_dropped_total ").append(AsyncLog.getDropped()).append('\n');
+
+        out.append("# TYPE maxon_rate_limited_total counter\n")
+                .append("maxon_rate_limited_total ").append(RateLimiter.getRejected()).append('\n');
+        appendGauge(out, "maxon_rate_limit_buckets", RateLimiter.size());
+
+        ctx.contentType("text/plain; version=0.0.4; charset=utf-8");
+        ctx.result(out.toString());
+    }
+
+    private static void appendHistogram(StringBuilder out, String name, String labels,
+                                        LatencyHistogram histogram, long[] bounds, double scale) {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        int finite = histogram.getBucketCount() - 1;
+        int bucket = 0;
+        long cumulative = 0;
+        for (long bound : bounds) {
+            while (bucket < finite && histogram.getUpperBoundNanos(bucket) <= bound) {
+                cumulative += histogram.getBucket(bucket++);
+            }
+            appendBucket(out, name, prefix, Double.toString(bound * scale), cumulative);
+        }
+        while (bucket <= finite) {
+            cumulative += histogram.getBucket(bucket++);
+        }
+        appendBucket(out, name, prefix, "+Inf", cumulative);
+
+        // _count совпадает с +Inf, даже если запись шла во время выгрузки
+        String braces = labels.isEmpty() ? "" : "{" + labels + "}";
+        out.append(name).append("_sum").append(braces).append(' ')
+                .append(histogram.getSumNanos() * scale).append('\n');
+        out.append(name).append("_count").append(braces).append(' ')
+                .append(cumulative).append('\n');
+    }
+
+    private static void appendBucket(StringBuilder out, String name, String prefix, String le, long cumulative) {
+        out.append(name).append("_bucket{").append(prefix).append("le=\"").append(le).append("\"} ")
+                .append(cumulative).append('\n');
+    }
+
+    private static void appendGauge(StringBuilder out, String name, long value) {
+        out.append("# TYPE ").append(name).append(" gauge\n")
+                .append(name).append(' ').append(value).append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
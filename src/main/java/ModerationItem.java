@@ -0,0 +1,30 @@
+import java.time.LocalDateTime;
+
+// Элемент очереди модерации: все ожидающие жалобы на одно сообщение
+public class ModerationItem {
+    private int messageId;
+    private Message message;
+    private int reportCount;
+    private LocalDateTime firstReportedAt;
+    private LocalDateTime lastReportedAt;
+    private String latestReason;
+
+    // Геттеры и сеттеры
+    public int getMessageId() { return messageId; }
+    public void setMessageId(int messageId) { this.messageId = messageId; }
+
+    public Message getMessage() { return message; }
+    public void setMessage(Message message) { this.message = message; }
+
+    public int getReportCount() { return reportCount; }
+    public void setReportCount(int reportCount) { this.reportCount = reportCount; }
+
+    public LocalDateTime getFirstReportedAt() { return firstReportedAt; }
+    public void setFirstReportedAt(LocalDateTime firstReportedAt) { this.firstReportedAt = firstReportedAt; }
+
+    public LocalDateTime getLastReportedAt() { return lastReportedAt; }
+    public void setLastReportedAt(LocalDateTime lastReportedAt) { this.lastReportedAt = lastReportedAt; }
+
+    public String getLatestReason() { return latestReason; }
+    public void setLatestReason(String latestReason) { this.latestReason = latestReason; }
+}
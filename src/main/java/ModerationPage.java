@@ -0,0 +1,79 @@
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+public class ModerationPage {
+    public static final String SORT_COUNT = "count";
+    public static final String SORT_RECENT = "recent";
+
+    private List<ModerationItem> items;
+    private String nextCursor;
+    private boolean hasMore;
+
+    // Конструкторы
+    public ModerationPage() {
+        this.items = new ArrayList<>();
+    }
+
+    // Геттеры и сеттеры
+    public List<ModerationItem> getItems() { return items; }
+    public void setItems(List<ModerationItem> items) { this.items = items; }
+
+    public String getNextCursor() { return nextCursor; }
+    public void setNextCursor(String nextCursor) { this.nextCursor = nextCursor; }
+
+    public boolean isHasMore() { return hasMore; }
+    public void setHasMore(boolean hasMore) { this.hasMore = hasMore; }
+
+    // Курсор - ключ сортировки последнего элемента страницы и messageId:
+    // "c:<count>:<messageId>" или "r:<lastReportedAt>:<messageId>", в base64
+    public static String cursor(String sort, ModerationItem last) {
+        String key = SORT_RECENT.equals(sort)
+                ? "r:" + Timestamp.valueOf(last.getLastReportedAt()) + ":" + last.getMessageId()
+                : "c:" + last.getReportCount() + ":" + last.getMessageId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Позиция после последнего элемента предыдущей страницы или null для некорректного курсора
+    // или курсора другой сортировки. Ключ разбирается здесь, чтобы запрос получал готовые значения
+    public static After decode(String sort, String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            boolean byRecent = SORT_RECENT.equals(sort);
+            String prefix = byRecent ? "r:" : "c:";
+            int last = raw.lastIndexOf(':');
+            if (!raw.startsWith(prefix) || last <= prefix.length()) {
+                return null;
+            }
+            String key = raw.substring(prefix.length(), last);
+            int messageId = Integer.parseInt(raw.substring(last + 1));
+            return byRecent
+                    ? new After(Timestamp.valueOf(key), 0, messageId)
+                    : new After(null, Integer.parseInt(key), messageId);
+        } catch (IllegalArgumentException e) {
+            // В том числе NumberFormatException и неверный формат времени
+            return null;
+        }
+    }
+
+    public static class After {
+        private final Timestamp lastReportedAt;
+        private final int reportCount;
+        private final int messageId;
+
+        After(Timestamp lastReportedAt, int reportCount, int messageId) {
+            this.lastReportedAt = lastReportedAt;
+            this.reportCount = reportCount;
+            this.messageId = messageId;
+        }
+
+        public Timestamp getLastReportedAt() { return lastReportedAt; }
+        public int getReportCount() { return reportCount; }
+        public int getMessageId() { return messageId; }
+    }
+}
@@ -0,0 +1,75 @@
+import at.favre.lib.crypto.bcrypt.BCrypt;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+// Хеширование и проверка паролей BCrypt в отдельном ограниченном пуле,
+// чтобы волна логинов не занимала потоки Jetty
+public class PasswordHasher {
+    private static final int DEFAULT_COST = 12;
+
+    private static final DatabaseConfig config = DatabaseService.getConfig();
+    private static final int cost = config.getInt("auth.bcryptCost", DEFAULT_COST);
+    private static final int threads = config.getInt("auth.bcryptThreads", Runtime.getRuntime().availableProcessors());
+    private static final int queueSize = config.getInt("auth.bcryptQueue", threads * 16);
+
+    private static final BCrypt.Hasher bcryptHasher = BCrypt.withDefaults();
+    private static final BCrypt.Verifyer bcryptVerifyer = BCrypt.verifyer();
+    private static final ThreadPoolExecutor executor = createExecutor();
+
+    // Проверка пароля. Строки без префикса BCrypt - старые пароли в открытом виде
+    public static CompletableFuture<Boolean> verify(String password, String storedHash) {
+        if (storedHash == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        if (!isBcryptHash(storedHash)) {
+            return CompletableFuture.completedFuture(MessageDigest.isEqual(
+                    password.getBytes(StandardCharsets.UTF_8), storedHash.getBytes(StandardCharsets.UTF_8)));
+        }
+        return submit(() -> bcryptVerifyer.verify(password.toCharArray(), storedHash.toCharArray()).verified);
+    }
+
+    public static CompletableFuture<String> hash(String password) {
+        return submit(() -> bcryptHasher.hashToString(cost, password.toCharArray()));
+    }
+
+    // При переполненной очереди будущее сразу завершается RejectedExecutionException
+    private static <T> CompletableFuture<T> submit(Supplier<T> task) {
+        try {
+            return CompletableFuture.supplyAsync(task, executor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    public static boolean isBcryptHash(String storedHash) {
+        return storedHash.startsWith("$2");
+    }
+
+    public static int getQueuedTasks() {
+        return executor.getQueue().size();
+    }
+
+    public static int getActiveThreads() {
+        return executor.getActiveCount();
+    }
+
+    private static ThreadPoolExecutor createExecutor() {
+        AtomicInteger counter = new AtomicInteger();
+        // AbortPolicy: при заполненной очереди задача сразу отклоняется
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                r -> {
+                    Thread thread = new Thread(r, "bcrypt-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+}
@@ -0,0 +1,77 @@
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Телеметрия пула Hikari: время получения и удержания соединений, таймауты и текущие значения пула
+public class PoolMetrics implements IMetricsTracker {
+    private final LatencyHistogram acquireTime = new LatencyHistogram();
+    private final LatencyHistogram usageTime = new LatencyHistogram();
+    private final LongAdder timeouts = new LongAdder();
+    private volatile HikariDataSource dataSource;
+
+    void attach(HikariDataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+        acquireTime.record(elapsedAcquiredNanos);
+    }
+
+    @Override
+    public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+        usageTime.record(TimeUnit.MILLISECONDS.toNanos(elapsedBorrowedMillis));
+    }
+
+    @Override
+    public void recordConnectionTimeout() {
+        timeouts.increment();
+    }
+
+    public LatencyHistogram getAcquireTime() { return acquireTime; }
+    public LatencyHistogram getUsageTime() { return usageTime; }
+    public long getTimeouts() { return timeouts.sum(); }
+
+    public int getActiveConnections() {
+        HikariPoolMXBean pool = pool();
+        return pool != null ? pool.getActiveConnections() : 0;
+    }
+
+    public int getIdleConnections() {
+        HikariPoolMXBean pool = pool();
+        return pool != null ? pool.getIdleConnections() : 0;
+    }
+
+    public int getTotalConnections() {
+        HikariPoolMXBean pool = pool();
+        return pool != null ? pool.getTotalConnections() : 0;
+    }
+
+    public int getPendingThreads() {
+        HikariPoolMXBean pool = pool();
+        return pool != null ? pool.getThreadsAwaitingConnection() : 0;
+    }
+
+    private HikariPoolMXBean pool() {
+        HikariDataSource ds = dataSource;
+        return ds != null ? ds.getHikariPoolMXBean() : null;
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("active", getActiveConnections());
+        result.put("idle", getIdleConnections());
+        result.put("total", getTotalConnections());
+        result.put("pending", getPendingThreads());
+        result.put("timeouts", getTimeouts());
+        result.put("acquireCount", acquireTime.getCount());
+        result.put("acquireP50Micros", TimeUnit.NANOSECONDS.toMicros(acquireTime.percentileNanos(50)));
+        result.put("acquireP99Micros", TimeUnit.NANOSECONDS.toMicros(acquireTime.percentileNanos(99)));
+        result.put("usageP99Millis", TimeUnit.NANOSECONDS.toMillis(usageTime.percentileNanos(99)));
+        return result;
+    }
+}
@@ -0,0 +1,300 @@
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Межузловая шина через PostgreSQL LISTEN/NOTIFY.
+// Формат уведомления: "<nodeId>|<chatId>:<messageId>:<senderId>,<chatId>:<messageId>:<senderId>,...",
+// удаление сообщения - в том же канале: "<nodeId>|-<chatId>:<messageId>:<senderId>"
+// Изменение состава чата - отдельный канал: "<nodeId>|+<chatId>:<userId>,<userId>,..." при добавлении,
+// "<nodeId>|-<chatId>:<userId>,..." при удалении
+public class PostgresEventBus implements MessageEventBus {
+    private static final String CHANNEL = "maxon_messages";
+    private static final String MEMBERSHIP_CHANNEL = "maxon_membership";
+    private static final int MAX_PAYLOAD_LENGTH = 7000; // лимит NOTIFY - 8000 байт
+    private static final int FLUSH_INTERVAL_MS = 5;
+    private static final int LISTEN_TIMEOUT_MS = 500;
+    private static final int RECONNECT_DELAY_MS = 2000;
+
+    private final String jdbcUrl;
+    private final String username;
+    private final String password;
+    private final String nodeId = UUID.randomUUID().toString().substring(0, 8);
+    private final BlockingQueue<Message> outgoing = new LinkedBlockingQueue<>(10_000);
+    private volatile boolean running;
+    private Thread listenerThread;
+    private Thread publisherThread;
+
+    public PostgresEventBus(String jdbcUrl, String username, String password) {
+        this.jdbcUrl = jdbcUrl;
+        this.username = username;
+        this.password = password;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+
+        listenerThread = new Thread(this::listenLoop, "event-bus-listener");
+        listenerThread.setDaemon(true);
+        listenerThread.start();
+
+        publisherThread = new Thread(this::publishLoop, "event-bus-publisher");
+        publisherThread.setDaemon(true);
+        publisherThread.start();
+
+        AsyncLog.info("Шина событий LISTEN/NOTIFY запущена, узел " + nodeId);
+    }
+
+    @Override
+    public void publish(Message message) {
+        // Локальные подписчики получают сообщение сразу, остальные узлы - через NOTIFY
+        DatabaseService.getUnreadCounters().onMessage(message.getChatId(), message.getId(), message.getSenderId());
+        MessageHub.publish(message);
+        if (!outgoing.offer(message)) {
+            AsyncLog.warn("Очередь шины событий переполнена, сообщение " + message.getId() + " не разослано");
+        }
+    }
+
+    // Удаление редкое - отправляем сразу из потока запроса, без очереди
+    @Override
+    public void publishMessageDeleted(int chatId, int messageId, int senderId) {
+        DatabaseService.getUnreadCounters().onMessageDeleted(chatId, messageId, senderId);
+        try {
+            notify(CHANNEL, List.of(nodeId + "|-" + chatId + ":" + messageId + ":" + senderId));
+        } catch (SQLException e) {
+            AsyncLog.error("Не удалось разослать удаление сообщения " + messageId, e);
+        }
+    }
+
+    @Override
+    public void publishMembersAdded(int chatId, List<Integer> userIds) {
+        DatabaseService.onParticipantsAdded(chatId, userIds);
+        publishMembership('+', chatId, userIds);
+    }
+
+    @Override
+    public void publishMembersRemoved(int chatId, List<Integer> userIds) {
+        DatabaseService.onParticipantsRemoved(chatId, userIds);
+        publishMembership('-', chatId, userIds);
+    }
+
+    // Редкое событие - отправляем сразу из потока запроса, без очереди
+    private void publishMembership(char change, int chatId, List<Integer> userIds) {
+        List<String> payloads = new ArrayList<>();
+        StringBuilder payload = new StringBuilder(nodeId).append('|').append(change).append(chatId).append(':');
+        int headerLength = payload.length();
+        for (int userId : userIds) {
+            String entry = String.valueOf(userId);
+            if (payload.length() + entry.length() + 1 > MAX_PAYLOAD_LENGTH) {
+                payloads.add(payload.toString());
+                payload.setLength(headerLength);
+            }
+            if (payload.length() > headerLength) {
+                payload.append(',');
+            }
+            payload.append(entry);
+        }
+        payloads.add(payload.toString());
+
+        try {
+            notify(MEMBERSHIP_CHANNEL, payloads);
+        } catch (SQLException e) {
+            // Другие узлы сбросят индекс при переподключении; до этого они не знают об изменении состава
+            AsyncLog.error("Не удалось разослать изменение участников чата " + chatId, e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (listenerThread != null) {
+            listenerThread.interrupt();
+        }
+        if (publisherThread != null) {
+            publisherThread.interrupt();
+        }
+    }
+
+    // Копим сообщения за короткое окно и отправляем их одним pg_notify
+    private void publishLoop() {
+        List<Message> batch = new ArrayList<>();
+        while (running) {
+            try {
+                Message first = outgoing.poll(LISTEN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                Thread.sleep(FLUSH_INTERVAL_MS);
+                outgoing.drainTo(batch);
+                sendNotifications(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (SQLException e) {
+                AsyncLog.error("Не удалось разослать " + batch.size() + " сообщений через NOTIFY", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void sendNotifications(List<Message> batch) throws SQLException {
+        List<String> payloads = new ArrayList<>();
+        StringBuilder payload = new StringBuilder(nodeId).append('|');
+        int headerLength = payload.length();
+        for (Message message : batch) {
+            String entry = message.getChatId() + ":" + message.getId() + ":" + message.getSenderId();
+            if (payload.length() + entry.length() + 1 > MAX_PAYLOAD_LENGTH) {
+                payloads.add(payload.toString());
+                payload.setLength(headerLength);
+            }
+            if (payload.length() > headerLength) {
+                payload.append(',');
+            }
+            payload.append(entry);
+        }
+        payloads.add(payload.toString());
+        notify(CHANNEL, payloads);
+    }
+
+    private void notify(String channel, List<String> payloads) throws SQLException {
+        String sql = "SELECT pg_notify(?, p) FROM unnest(?::text[]) AS p";
+        try (Connection conn = DatabaseService.getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, channel);
+            stmt.setArray(2, conn.createArrayOf("text", payloads.toArray()));
+            stmt.execute();
+        }
+    }
+
+    // Отдельное соединение вне пула: LISTEN держит его всё время работы.
+    // Любой сбой - переподключение и повторный LISTEN; поток слушателя не завершается.
+    // Пока соединения не было, события о составе чатов могли потеряться - после каждого LISTEN,
+    // включая первый, сбрасываем индекс участия
+    private void listenLoop() {
+        while (running) {
+            try (Connection conn = DriverManager.getConnection(jdbcUrl, username, password)) {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("LISTEN " + CHANNEL);
+                    stmt.execute("LISTEN " + MEMBERSHIP_CHANNEL);
+                }
+                PGConnection pgConnection = conn.unwrap(PGConnection.class);
+                DatabaseService.resetMembershipIndex();
+
+                while (running) {
+                    PGNotification[] notifications = pgConnection.getNotifications(LISTEN_TIMEOUT_MS);
+                    if (notifications != null && notifications.length > 0) {
+                        deliver(notifications);
+                    }
+                }
+            } catch (SQLException e) {
+                AsyncLog.warn("Соединение LISTEN потеряно: " + e.getMessage());
+                sleepBeforeReconnect();
+            } catch (RuntimeException e) {
+                AsyncLog.error("Сбой слушателя шины событий, переподключение: " + e);
+                sleepBeforeReconnect();
+            }
+        }
+    }
+
+    // Все уведомления пачки дочитываются из БД одним запросом
+    private void deliver(PGNotification[] notifications) {
+        Set<Integer> messageIds = new LinkedHashSet<>();
+        for (PGNotification notification : notifications) {
+            String payload = notification.getParameter();
+            int separator = payload.indexOf('|');
+            if (separator < 0 || payload.substring(0, separator).equals(nodeId)) {
+                continue; // свои события уже применены локально
+            }
+            if (MEMBERSHIP_CHANNEL.equals(notification.getName())) {
+                deliverMembership(payload, separator);
+                continue;
+            }
+            for (String entry : payload.substring(separator + 1).split(",")) {
+                boolean deleted = entry.startsWith("-");
+                String[] parts = (deleted ? entry.substring(1) : entry).split(":");
+                if (parts.length < 3) {
+                    AsyncLog.warn("Некорректное уведомление шины событий: " + payload);
+                    break;
+                }
+                int chatId;
+                int messageId;
+                int senderId;
+                try {
+                    chatId = Integer.parseInt(parts[0]);
+                    messageId = Integer.parseInt(parts[1]);
+                    senderId = Integer.parseInt(parts[2]);
+                } catch (NumberFormatException e) {
+                    // Чужое или повреждённое уведомление в канале не должно останавливать слушателя
+                    AsyncLog.warn("Некорректное уведомление шины событий: " + payload);
+                    break;
+                }
+                if (deleted) {
+                    DatabaseService.getUnreadCounters().onMessageDeleted(chatId, messageId, senderId);
+                    continue;
+                }
+                // Счётчики непрочитанных обновляем для всех чатов, а сообщения
+                // дочитываем только для чатов, у которых на этом узле есть подписчики
+                DatabaseService.getUnreadCounters().onMessage(chatId, messageId, senderId);
+                if (MessageHub.hasSubscribers(chatId)) {
+                    messageIds.add(messageId);
+                }
+            }
+        }
+
+        if (messageIds.isEmpty()) {
+            return;
+        }
+        for (Message message : DatabaseService.getMessagesByIds(new ArrayList<>(messageIds))) {
+            MessageHub.publish(message);
+        }
+    }
+
+    private void deliverMembership(String payload, int separator) {
+        int colon = payload.indexOf(':', separator);
+        if (colon < separator + 3) {
+            AsyncLog.warn("Некорректное уведомление шины событий: " + payload);
+            return;
+        }
+        char change = payload.charAt(separator + 1);
+        List<Integer> userIds = new ArrayList<>();
+        int chatId;
+        try {
+            chatId = Integer.parseInt(payload.substring(separator + 2, colon));
+            for (String entry : payload.substring(colon + 1).split(",")) {
+                userIds.add(Integer.parseInt(entry));
+            }
+        } catch (NumberFormatException e) {
+            AsyncLog.warn("Некорректное уведомление шины событий: " + payload);
+            return;
+        }
+        if (change == '+') {
+            DatabaseService.onParticipantsAdded(chatId, userIds);
+        } else if (change == '-') {
+            DatabaseService.onParticipantsRemoved(chatId, userIds);
+        } else {
+            AsyncLog.warn("Некорректное уведомление шины событий: " + payload);
+        }
+    }
+
+    private void sleepBeforeReconnect() {
+        try {
+            Thread.sleep(RECONNECT_DELAY_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+import io.javalin.http.Context;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Ограничение частоты изменяющих запросов до обработчиков и БД. Ведро токенов на пару
+// (маршрут, пользователь) или (маршрут, IP) до входа. Ведро - один AtomicLong с теоретическим
+// временем прихода следующего запроса (GCRA): проверка и списание токена - один CAS, без блокировок.
+// Бюджет маршрута задаётся в maxon.properties как ratelimit.<имя>=<запросов>/<секунд>
+public class RateLimiter {
+    private static final long EVICT_INTERVAL_MS = 60_000;
+
+    private static final DatabaseConfig config = DatabaseService.getConfig();
+    private static final boolean ENABLED = config.getBoolean("ratelimit.enabled", true);
+    // Адреса своих балансировщиков: только от них принимается X-Forwarded-For
+    private static final Set<String> TRUSTED_PROXIES = Set.copyOf(Arrays.asList(
+            config.getString("ratelimit.trustedProxies", "").split("\\s*,\\s*")));
+
+    // "METHOD path" -> бюджет; ограничиваемые маршруты без параметров пути
+    private static final Map<String, Budget> budgets = new HashMap<>();
+    static {
+        budget("POST", "/api/login", "login", "10/60");
+        budget("POST", "/api/register", "register", "5/3600");
+        budget("POST", "/api/friend-request", "friendRequest", "30/60");
+        budget("POST", "/api/message", "message", "60/10");
+        budget("POST", "/api/chat/private", "createChat", "30/60");
+        budget("POST", "/api/chat/group", "createChat", "30/60");
+    }
+
+    // ConcurrentHashMap уже разбит на независимые ячейки: разные ключи не конкурируют
+    private static final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private static final LongAdder rejected = new LongAdder();
+
+    static {
+        Thread evictor = new Thread(RateLimiter::evictLoop, "rate-limit-evictor");
+        evictor.setDaemon(true);
+        evictor.start();
+    }
+
+    // Before-обработчик: при превышении отвечает 429 и не пускает запрос дальше
+    public static void check(Context ctx) {
+        if (!ENABLED) {
+            return;
+        }
+        Budget budget = budgets.get(ctx.method().name() + " " + ctx.path());
+        if (budget == null) {
+            return;
+        }
+
+        User user = ctx.sessionAttribute("user");
+        String key = budget.name + (user != null ? ":u" + user.getId() : ":ip" + clientIp(ctx));
+        long waitNanos = acquire(buckets.computeIfAbsent(key, k -> new AtomicLong()), budget, System.nanoTime());
+        if (waitNanos == 0) {
+            return;
+        }
+
+        rejected.increment();
+        long retryAfterSeconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999L));
+        ctx.header("Retry-After", String.valueOf(retryAfterSeconds));
+        ctx.status(429).json(Map.of("success", false, "message", "Слишком много запросов, повторите позже"));
+        ctx.skipRemainingHandlers();
+    }
+
+    // За доверенным прокси адрес клиента - ближайший справа недоверенный адрес X-Forwarded-For;
+    // левые элементы заголовка клиент может подставить сам, поэтому им не верим
+    static String clientIp(Context ctx) {
+        String remote = ctx.ip();
+        String forwarded = ctx.header("X-Forwarded-For");
+        if (forwarded == null || !TRUSTED_PROXIES.contains(remote)) {
+            return remote;
+        }
+        String[] hops = forwarded.split(",");
+        for (int i = hops.length - 1; i >= 0; i--) {
+            String hop = hops[i].trim();
+            if (!hop.isEmpty() && !TRUSTED_PROXIES.contains(hop)) {
+                return hop;
+            }
+        }
+        return remote;
+    }
+
+    // 0 - токен выдан, иначе сколько наносекунд ждать следующего
+    static long acquire(AtomicLong bucket, Budget budget, long now) {
+        while (true) {
+            long tat = bucket.get();
+            // Пустое ведро (или давно не использованное) - отсчёт от текущего момента
+            long base = tat == 0 || tat - now < 0 ? now : tat;
+            long wait = base - now - budget.burstNanos;
+            if (wait > 0) {
+                return wait;
+            }
+            if (bucket.compareAndSet(tat, base + budget.intervalNanos)) {
+                return 0;
+            }
+        }
+    }
+
+    public static long getRejected() {
+        return rejected.sum();
+    }
+
+    public static int size() {
+        return buckets.size();
+    }
+
+    // Ведро, полностью восстановившееся к текущему моменту, неотличимо от нового - удаляем
+    private static void evictLoop() {
+        while (true) {
+            try {
+                Thread.sleep(EVICT_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.nanoTime();
+            buckets.values().removeIf(bucket -> bucket.get() - now <= 0);
+        }
+    }
+
+    private static void budget(String method, String path, String name, String defaultValue) {
+        String key = "ratelimit." + name;
+        String value = config.getString(key, defaultValue);
+        Budget budget = parse(name, value);
+        if (budget == null) {
+            AsyncLog.error("Некорректное значение " + key + ": " + value + ", используется " + defaultValue);
+            budget = parse(name, defaultValue);
+        }
+        budgets.put(method + " " + path, budget);
+    }
+
+    // null - значение не вида <запросов>/<секунд> с положительными числами
+    private static Budget parse(String name, String value) {
+        int slash = value.indexOf('/');
+        if (slash < 0) {
+            return null;
+        }
+        try {
+            int requests = Integer.parseInt(value.substring(0, slash).trim());
+            int seconds = Integer.parseInt(value.substring(slash + 1).trim());
+            return requests >= 1 && seconds >= 1 ? new Budget(name, requests, seconds) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    static class Budget {
+        private final String name;
+        // Интервал пополнения одного токена и допустимый запас сверх него (ёмкость ведра - 1)
+        private final long intervalNanos;
+        private final long burstNanos;
+
+        Budget(String name, int requests, int seconds) {
+            this.name = name;
+            this.intervalNanos = TimeUnit.SECONDS.toNanos(seconds) / requests;
+            this.burstNanos = intervalNanos * (requests - 1);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+import com.zaxxer.hikari.HikariDataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Маршрутизация чтения на реплики PostgreSQL. У каждой реплики свой пул;
+// отстающие или недоступные реплики исключаются, тогда чтение идёт на primary
+public class ReplicaRouter {
+    private static final ThreadLocal<Boolean> primaryPinned = ThreadLocal.withInitial(() -> false);
+
+    private final List<Replica> replicas = new ArrayList<>();
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final long maxLagMillis;
+    private ScheduledExecutorService healthChecker;
+
+    private ReplicaRouter(long maxLagMillis) {
+        this.maxLagMillis = maxLagMillis;
+    }
+
+    public static ReplicaRouter create(DatabaseConfig config) {
+        ReplicaRouter router = new ReplicaRouter(config.getInt("db.replica.maxLagMs", 1_000));
+        String urls = config.getString("db.replicas", "");
+        for (String url : urls.split(",")) {
+            if (url.isBlank()) {
+                continue;
+            }
+            HikariDataSource ds = new HikariDataSource();
+            ds.setJdbcUrl(url.trim());
+            ds.setUsername(config.getString("db.replica.username", config.getUsername()));
+            ds.setPassword(config.getString("db.replica.password", config.getPassword()));
+            ds.setMaximumPoolSize(config.getInt("db.replica.pool.maxSize", config.getMaxPoolSize()));
+            ds.setConnectionTimeout(config.getInt("db.replica.connectionTimeoutMs", 1_000));
+            ds.setReadOnly(true);
+            ds.addDataSourceProperty("prepareThreshold", config.getPrepareThreshold());
+            ds.addDataSourceProperty("defaultRowFetchSize", config.getDefaultRowFetchSize());
+            router.replicas.add(new Replica(url.trim(), ds));
+        }
+        if (!router.replicas.isEmpty()) {
+            router.startHealthChecks(config.getInt("db.replica.checkIntervalMs", 1_000));
+            AsyncLog.info("Реплик для чтения: " + router.replicas.size());
+        }
+        return router;
+    }
+
+    // Сессия недавно писала - её чтения идут на primary (read-your-writes)
+    public static void pinToPrimary(boolean pinned) {
+        primaryPinned.set(pinned);
+    }
+
+    public static void clearPin() {
+        primaryPinned.remove();
+    }
+
+    // null - подходящей реплики нет, читать нужно с primary
+    public Connection getReadConnection() {
+        if (replicas.isEmpty() || primaryPinned.get()) {
+            return null;
+        }
+        int size = replicas.size();
+        int start = Math.floorMod(nextReplica.getAndIncrement(), size);
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((start + i) % size);
+            if (!replica.healthy) {
+                continue;
+            }
+            try {
+                return replica.dataSource.getConnection();
+            } catch (SQLException e) {
+                // Занятый пул (таймаут ожидания без причины) - не повод исключать реплику,
+                // остальное решает проверка отставания
+                if (isConnectionFailure(e)) {
+                    replica.markUnhealthy(e.getMessage());
+                }
+            }
+        }
+        return null;
+    }
+
+    // Класс SQLState 08 - ошибка установки или обрыв соединения; у таймаута пула Hikari
+    // это состояние есть, только если последняя попытка подключения не удалась
+    static boolean isConnectionFailure(SQLException e) {
+        for (SQLException cause = e; cause != null; cause = cause.getNextException()) {
+            String state = cause.getSQLState();
+            if (state != null && state.startsWith("08")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void startHealthChecks(int intervalMs) {
+        healthChecker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "replica-health");
+            thread.setDaemon(true);
+            return thread;
+        });
+        healthChecker.scheduleWithFixedDelay(this::checkReplicas, 0, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Отставание по времени последней применённой транзакции; если реплика догнала primary
+    // (LSN получения и применения совпадают), отставания нет даже при давней последней записи
+    private void checkReplicas() {
+        String sql = "SELECT CASE WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 " +
+                "ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000, 0) END";
+        for (Replica replica : replicas) {
+            try (Connection conn = replica.dataSource.getConnection();
+                 Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery(sql)) {
+                long lag = rs.next() ? rs.getLong(1) : 0;
+                if (lag > maxLagMillis) {
+                    replica.markUnhealthy("отставание " + lag + " мс");
+                } else if (!replica.healthy) {
+                    replica.healthy = true;
+                    AsyncLog.info("Реплика снова доступна: " + replica.url);
+                }
+            } catch (SQLException e) {
+                replica.markUnhealthy(e.getMessage());
+            }
+        }
+    }
+
+    private static class Replica {
+        private final String url;
+        private final HikariDataSource dataSource;
+        private volatile boolean healthy = true;
+
+        Replica(String url, HikariDataSource dataSource) {
+            this.url = url;
+            this.dataSource = dataSource;
+        }
+
+        void markUnhealthy(String reason) {
+            if (healthy) {
+                AsyncLog.warn("Реплика исключена из чтения: " + url + " (" + reason + ")");
+            }
+            healthy = false;
+        }
+    }
+}
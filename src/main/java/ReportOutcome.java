@@ -0,0 +1,34 @@
+// Результат решения по одной жалобе в пакетной модерации
+public class ReportOutcome {
+    public static final String APPLIED = "APPLIED";
+    public static final String ALREADY_PROCESSED = "ALREADY_PROCESSED";
+    public static final String NOT_FOUND = "NOT_FOUND";
+
+    private int reportId;
+    private String result;
+    private String status; // статус жалобы после решения
+    private Integer blockedUserId;
+
+    // Конструкторы
+    public ReportOutcome() {
+    }
+
+    public ReportOutcome(int reportId, String result, String status) {
+        this.reportId = reportId;
+        this.result = result;
+        this.status = status;
+    }
+
+    // Геттеры и сеттеры
+    public int getReportId() { return reportId; }
+    public void setReportId(int reportId) { this.reportId = reportId; }
+
+    public String getResult() { return result; }
+    public void setResult(String result) { this.result = result; }
+
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+
+    public Integer getBlockedUserId() { return blockedUserId; }
+    public void setBlockedUserId(Integer blockedUserId) { this.blockedUserId = blockedUserId; }
+}
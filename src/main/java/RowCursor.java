@@ -0,0 +1,90 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// Построчное чтение большого результата через серверный курсор PgJDBC: драйвер держит в памяти
+// не больше fetchSize строк, пока соединение в транзакции (autocommit выключен).
+// Держит соединение пула до close(), поэтому используется только в try-with-resources
+public class RowCursor<T> implements Iterator<T>, AutoCloseable {
+    @FunctionalInterface
+    public interface RowMapper<T> {
+        T map(ResultSet rs) throws SQLException;
+    }
+
+    private final String name;
+    private final Connection conn;
+    private final PreparedStatement stmt;
+    private final ResultSet rs;
+    private final RowMapper<T> mapper;
+    private final long startedNanos;
+    private int rows;
+    private boolean advanced;
+    private boolean hasRow;
+    private boolean closed;
+
+    RowCursor(String name, Connection conn, PreparedStatement stmt, ResultSet rs, RowMapper<T> mapper, long startedNanos) {
+        this.name = name;
+        this.conn = conn;
+        this.stmt = stmt;
+        this.rs = rs;
+        this.mapper = mapper;
+        this.startedNanos = startedNanos;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!advanced) {
+            try {
+                hasRow = !closed && rs.next();
+            } catch (SQLException e) {
+                Metrics.sqlError(name);
+                throw new IllegalStateException("Ошибка чтения курсора " + name, e);
+            }
+            advanced = true;
+        }
+        return hasRow;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        advanced = false;
+        rows++;
+        try {
+            return mapper.map(rs);
+        } catch (SQLException e) {
+            Metrics.sqlError(name);
+            throw new IllegalStateException("Ошибка чтения курсора " + name, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            rs.close();
+            stmt.close();
+            // Только чтение: завершаем транзакцию курсора без изменений
+            conn.rollback();
+            conn.setAutoCommit(true);
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                conn.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            Metrics.rows(name, rows);
+            Metrics.query(name, startedNanos);
+        }
+    }
+}
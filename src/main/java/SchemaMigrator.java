@@ -0,0 +1,359 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Версионные миграции схемы из classpath db/migration при старте.
+// Применённые версии и SHA-256 скриптов хранятся в schema_migrations; изменённый
+// после применения скрипт останавливает запуск. Узлы, стартующие одновременно,
+// сериализуются через advisory lock.
+// Директивы в начале скрипта:
+//   -- migrate: no-transaction - операторы выполняются по одному вне транзакции (нужно для
+//      CREATE INDEX CONCURRENTLY); все операторы должны быть идемпотентными, после сбоя скрипт
+//      выполняется заново, недостроенный индекс с тем же именем сначала удаляется;
+//   -- migrate: requires-extension <имя> - без расширения скрипт пропускается и не записывается
+//      в историю, при следующем старте проверка повторяется
+public class SchemaMigrator {
+    private static final String LOCATION = "/db/migration/";
+    private static final String[] MIGRATIONS = {
+            "V1__baseline_schema.sql",
+            "V2__unread_markers.sql",
+            "V3__message_search.sql",
+            "V4__private_chat_pairs.sql",
+            "V5__hot_query_indexes.sql",
+            "V6__users_username_trgm.sql",
+            "V7__moderation_queue.sql",
+            "V8__messages_by_sender.sql",
+    };
+    private static final long ADVISORY_LOCK_KEY = 0x4D41584F4EL; // "MAXON"
+    private static final long LOCK_RETRY_MS = 1_000;
+
+    private static final String NO_TRANSACTION = "-- migrate: no-transaction";
+    private static final Pattern REQUIRES_EXTENSION = Pattern.compile("(?m)^-- migrate: requires-extension (\\w+)$");
+    private static final Pattern CONCURRENT_INDEX = Pattern.compile(
+            "CREATE\\s+(?:UNIQUE\\s+)?INDEX\\s+CONCURRENTLY\\s+IF\\s+NOT\\s+EXISTS\\s+(\\w+)",
+            Pattern.CASE_INSENSITIVE);
+
+    // Таблицы, на которых последовательное сканирование горячего запроса - проблема
+    private static final long SEQ_SCAN_MIN_ROWS = 10_000;
+    private static final Pattern SEQ_SCAN = Pattern.compile("Seq Scan on (\\w+)");
+
+    // Горячие запросы с типичными значениями параметров для EXPLAIN
+    private static final Map<String, String> HOT_QUERIES = new LinkedHashMap<>();
+    static {
+        HOT_QUERIES.put("getChatMessages",
+                "SELECT * FROM messages WHERE chat_id = 1 AND is_deleted = false ORDER BY id DESC LIMIT 51");
+        HOT_QUERIES.put("getUserChatIds", "SELECT chat_id FROM chat_participants WHERE user_id = 1");
+        HOT_QUERIES.put("isContact", "SELECT 1 FROM contacts WHERE user_id = 1 AND contact_id = 2");
+        HOT_QUERIES.put("getIncomingRequests",
+                "SELECT * FROM friend_requests WHERE to_user_id = 1 AND status = 'PENDING' ORDER BY created_at DESC");
+        HOT_QUERIES.put("hasFriendRequest",
+                "SELECT 1 FROM friend_requests WHERE from_user_id = 1 AND to_user_id = 2 AND status = 'PENDING'");
+        HOT_QUERIES.put("getPendingReports",
+                "SELECT * FROM reports WHERE status = 'PENDING' ORDER BY created_at DESC LIMIT 50");
+        HOT_QUERIES.put("getModerationQueue",
+                "SELECT message_id FROM moderation_queue ORDER BY pending_count DESC, message_id DESC LIMIT 51");
+        HOT_QUERIES.put("searchMessages",
+                "SELECT id FROM messages WHERE content_tsv @@ websearch_to_tsquery('russian', 'привет') " +
+                "AND is_deleted = false ORDER BY id DESC LIMIT 21");
+        HOT_QUERIES.put("searchUsers", "SELECT id FROM users WHERE username ILIKE '%adm%' LIMIT 20");
+        HOT_QUERIES.put("searchUsersPrefix", "SELECT id FROM users WHERE lower(username) LIKE 'ad%' LIMIT 20");
+        HOT_QUERIES.put("createPrivateChat",
+                "SELECT id FROM chats WHERE private_user_low = 1 AND private_user_high = 2 AND NOT is_group");
+        HOT_QUERIES.put("decideReports",
+                "SELECT r.id FROM reports r JOIN messages m ON m.id = r.message_id WHERE m.sender_id = 1 " +
+                "AND r.status = 'PENDING' ORDER BY r.id LIMIT 10000");
+    }
+
+    public static void migrate() {
+        try (Connection conn = DatabaseService.getConnection()) {
+            acquireLock(conn);
+            try {
+                ensureHistoryTable(conn);
+                Map<Integer, String> applied = loadApplied(conn);
+                for (String script : MIGRATIONS) {
+                    applyIfNeeded(conn, script, applied);
+                }
+            } finally {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("SELECT pg_advisory_unlock(" + ADVISORY_LOCK_KEY + ")");
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Не удалось применить миграции схемы", e);
+        }
+    }
+
+    // Ждём не в pg_advisory_lock: ожидающий сеанс держит снимок, и CREATE INDEX CONCURRENTLY
+    // узла, выполняющего миграции, ждал бы его завершения - взаимная блокировка
+    private static void acquireLock(Connection conn) throws SQLException {
+        while (true) {
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT pg_try_advisory_lock(" + ADVISORY_LOCK_KEY + ")")) {
+                if (rs.next() && rs.getBoolean(1)) {
+                    return;
+                }
+            }
+            try {
+                Thread.sleep(LOCK_RETRY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Ожидание блокировки миграций прервано", e);
+            }
+        }
+    }
+
+    private static void ensureHistoryTable(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS schema_migrations (" +
+                    "version INTEGER PRIMARY KEY, " +
+                    "script VARCHAR(255) NOT NULL, " +
+                    "checksum VARCHAR(64) NOT NULL, " +
+                    "execution_ms INTEGER NOT NULL, " +
+                    "installed_at TIMESTAMP NOT NULL DEFAULT NOW())");
+        }
+    }
+
+    private static Map<Integer, String> loadApplied(Connection conn) throws SQLException {
+        Map<Integer, String> applied = new HashMap<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT version, checksum FROM schema_migrations")) {
+            while (rs.next()) {
+                applied.put(rs.getInt("version"), rs.getString("checksum"));
+            }
+        }
+        return applied;
+    }
+
+    // Миграция - одна транзакция вместе с записью в schema_migrations, если не указано иное
+    private static void applyIfNeeded(Connection conn, String script, Map<Integer, String> applied) throws SQLException {
+        int version = parseVersion(script);
+        String sql = readScript(script);
+        String checksum = sha256(sql);
+
+        String appliedChecksum = applied.get(version);
+        if (appliedChecksum != null) {
+            if (!appliedChecksum.equals(checksum)) {
+                throw new IllegalStateException("Миграция " + script + " изменена после применения: " +
+                        "контрольная сумма " + checksum + ", в базе " + appliedChecksum);
+            }
+            return;
+        }
+
+        Matcher extension = REQUIRES_EXTENSION.matcher(sql);
+        if (extension.find() && !hasExtension(conn, extension.group(1))) {
+            AsyncLog.warn("Миграция " + script + " пропущена: в базе нет расширения " + extension.group(1) +
+                    " (CREATE EXTENSION " + extension.group(1) + " выполняет администратор БД)");
+            return;
+        }
+        if (sql.startsWith(NO_TRANSACTION)) {
+            applyWithoutTransaction(conn, script, version, sql, checksum);
+            return;
+        }
+
+        long start = System.nanoTime();
+        conn.setAutoCommit(false);
+        try (Statement stmt = conn.createStatement();
+             PreparedStatement record = conn.prepareStatement(
+                     "INSERT INTO schema_migrations (version, script, checksum, execution_ms) VALUES (?, ?, ?, ?)")) {
+            stmt.execute(sql);
+            int elapsedMs = (int) ((System.nanoTime() - start) / 1_000_000);
+            record.setInt(1, version);
+            record.setString(2, script);
+            record.setString(3, checksum);
+            record.setInt(4, elapsedMs);
+            record.executeUpdate();
+            conn.commit();
+            AsyncLog.info("Миграция " + script + " применена за " + elapsedMs + " мс");
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    // Каждый оператор в своей транзакции (autocommit); запись в историю - после последнего
+    private static void applyWithoutTransaction(Connection conn, String script, int version, String sql,
+                                                String checksum) throws SQLException {
+        long start = System.nanoTime();
+        for (String statement : splitStatements(sql)) {
+            Matcher index = CONCURRENT_INDEX.matcher(statement);
+            if (index.find() && isInvalidIndex(conn, index.group(1))) {
+                // Прерванный CREATE INDEX CONCURRENTLY оставляет нерабочий индекс, а IF NOT EXISTS его бы пропустил
+                AsyncLog.warn("Недостроенный индекс " + index.group(1) + " удаляется перед повторной сборкой");
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("DROP INDEX CONCURRENTLY IF EXISTS " + index.group(1));
+                }
+            }
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute(statement);
+            }
+        }
+        int elapsedMs = (int) ((System.nanoTime() - start) / 1_000_000);
+        try (PreparedStatement record = conn.prepareStatement(
+                "INSERT INTO schema_migrations (version, script, checksum, execution_ms) VALUES (?, ?, ?, ?)")) {
+            record.setInt(1, version);
+            record.setString(2, script);
+            record.setString(3, checksum);
+            record.setInt(4, elapsedMs);
+            record.executeUpdate();
+        }
+        AsyncLog.info("Миграция " + script + " применена за " + elapsedMs + " мс (вне транзакции)");
+    }
+
+    static boolean hasExtension(Connection conn, String name) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT 1 FROM pg_extension WHERE extname = ?")) {
+            stmt.setString(1, name);
+            return stmt.executeQuery().next();
+        }
+    }
+
+    // Индекс существует и пригоден для запросов
+    static boolean hasValidIndex(Connection conn, String name) throws SQLException {
+        return indexValidity(conn, name) == Boolean.TRUE;
+    }
+
+    private static boolean isInvalidIndex(Connection conn, String name) throws SQLException {
+        return indexValidity(conn, name) == Boolean.FALSE;
+    }
+
+    // null - индекса нет
+    private static Boolean indexValidity(Connection conn, String name) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT i.indisvalid FROM pg_index i JOIN pg_class c ON c.oid = i.indexrelid " +
+                "WHERE c.relname = ? AND pg_table_is_visible(c.oid)")) {
+            stmt.setString(1, name);
+            ResultSet rs = stmt.executeQuery();
+            return rs.next() ? rs.getBoolean(1) : null;
+        }
+    }
+
+    // Разбиение скрипта по ';' вне строк, идентификаторов в кавычках, комментариев и $-кавычек
+    static List<String> splitStatements(String sql) {
+        List<String> statements = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        int i = 0;
+        while (i < sql.length()) {
+            char c = sql.charAt(i);
+            if (c == '-' && sql.startsWith("--", i)) {
+                int end = sql.indexOf('\n', i);
+                i = end < 0 ? sql.length() : end + 1;
+                current.append('\n');
+                continue;
+            }
+            if (c == '\'' || c == '"') {
+                int end = sql.indexOf(c, i + 1);
+                end = end < 0 ? sql.length() : end + 1;
+                current.append(sql, i, end);
+                i = end;
+                continue;
+            }
+            if (c == '$') {
+                int tagEnd = sql.indexOf('$', i + 1);
+                if (tagEnd > 0 && sql.substring(i + 1, tagEnd).matches("\\w*")) {
+                    String tag = sql.substring(i, tagEnd + 1);
+                    int end = sql.indexOf(tag, tagEnd + 1);
+                    end = end < 0 ? sql.length() : end + tag.length();
+                    current.append(sql, i, end);
+                    i = end;
+                    continue;
+                }
+            }
+            if (c == ';') {
+                addStatement(statements, current);
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+            i++;
+        }
+        addStatement(statements, current);
+        return statements;
+    }
+
+    private static void addStatement(List<String> statements, StringBuilder statement) {
+        String trimmed = statement.toString().trim();
+        if (!trimmed.isEmpty()) {
+            statements.add(trimmed);
+        }
+    }
+
+    // EXPLAIN горячих запросов: предупреждение, если большой таблице достаётся Seq Scan
+    public static void selfCheck() {
+        try (Connection conn = DatabaseService.getConnection()) {
+            for (Map.Entry<String, String> query : HOT_QUERIES.entrySet()) {
+                StringBuilder plan = new StringBuilder();
+                try (Statement stmt = conn.createStatement();
+                     ResultSet rs = stmt.executeQuery("EXPLAIN " + query.getValue())) {
+                    while (rs.next()) {
+                        plan.append(rs.getString(1)).append('\n');
+                    }
+                } catch (SQLException e) {
+                    AsyncLog.warn("Проверка плана " + query.getKey() + " не выполнена: " + e.getMessage());
+                    continue;
+                }
+
+                Matcher matcher = SEQ_SCAN.matcher(plan);
+                while (matcher.find()) {
+                    String table = matcher.group(1);
+                    long rows = estimatedRows(conn, table);
+                    if (rows >= SEQ_SCAN_MIN_ROWS) {
+                        AsyncLog.warn("Запрос " + query.getKey() + " читает таблицу " + table +
+                                " (~" + rows + " строк) последовательным сканированием:\n" + plan);
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            AsyncLog.warn("Проверка планов запросов не выполнена: " + e.getMessage());
+        }
+    }
+
+    private static long estimatedRows(Connection conn, String table) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT reltuples::bigint FROM pg_class WHERE relname = ? AND relkind = 'r'")) {
+            stmt.setString(1, table);
+            ResultSet rs = stmt.executeQuery();
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    private static int parseVersion(String script) {
+        return Integer.parseInt(script.substring(1, script.indexOf("__")));
+    }
+
+    private static String readScript(String script) {
+        try (InputStream in = SchemaMigrator.class.getResourceAsStream(LOCATION + script)) {
+            if (in == null) {
+                throw new IllegalStateException("Миграция не найдена в classpath: " + script);
+            }
+            // Контрольная сумма не зависит от переводов строк в checkout
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8).replace("\r\n", "\n");
+        } catch (IOException e) {
+            throw new IllegalStateException("Не удалось прочитать миграцию " + script, e);
+        }
+    }
+
+    private static String sha256(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
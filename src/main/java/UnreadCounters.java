@@ -0,0 +1,217 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.StampedLock;
+
+// Счётчики непрочитанных сообщений участников в памяти. Источник истины - маркер
+// chat_participants.last_read_message_id: при первом обращении пользователя счётчики считаются
+// по сообщениям после маркера, дальше меняются при рассылке, удалении и прочтении. Запись
+// сообщения строки участников не трогает - на горячем пути нет блокировок по всем участникам чата.
+// Пока идёт запрос к БД, события копятся в Fence; при установке значений из БД к ним
+// добавляются сообщения новее последнего id, который видел этот запрос
+public class UnreadCounters {
+    // Одни и те же Counter доступны по пользователю и по чату
+    private final Map<Integer, Map<Integer, Counter>> byUser = new ConcurrentHashMap<>();
+    private final Map<Integer, Map<Integer, Counter>> byChat = new ConcurrentHashMap<>();
+    private final Set<Fence> fences = ConcurrentHashMap.newKeySet();
+    // События - под read-lock, установка значений из БД - под write-lock: событие попадает
+    // либо в Fence, либо в уже установленный счётчик, но не в оба и не мимо
+    private final StampedLock lock = new StampedLock();
+
+    public boolean isLoaded(int userId) {
+        return byUser.containsKey(userId);
+    }
+
+    // Вызывается до запроса к БД, результат передаётся в load или markRead
+    public Fence fence(int userId) {
+        Fence fence = new Fence(userId);
+        fences.add(fence);
+        return fence;
+    }
+
+    // Начальные значения из БД по всем чатам пользователя
+    public void load(Fence fence, Map<Integer, Seed> seeds) {
+        long stamp = lock.writeLock();
+        try {
+            fences.remove(fence);
+            Map<Integer, Counter> userCounters = byUser.computeIfAbsent(fence.userId, id -> new ConcurrentHashMap<>());
+            for (Map.Entry<Integer, Seed> entry : seeds.entrySet()) {
+                Seed seed = entry.getValue();
+                Counter counter = counter(userCounters, entry.getKey(), fence.userId);
+                counter.lastRead = seed.lastRead;
+                counter.unread.set(seed.unread + fence.missed(entry.getKey(), seed));
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // null - пользователь ещё не загружен
+    public Map<Integer, Integer> snapshot(int userId) {
+        Map<Integer, Counter> userCounters = byUser.get(userId);
+        if (userCounters == null) {
+            return null;
+        }
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (Map.Entry<Integer, Counter> entry : userCounters.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().unread.get());
+        }
+        return counts;
+    }
+
+    public int get(int userId, int chatId) {
+        Map<Integer, Counter> userCounters = byUser.get(userId);
+        Counter counter = userCounters != null ? userCounters.get(chatId) : null;
+        return counter != null ? counter.unread.get() : 0;
+    }
+
+    // Новое сообщение: +1 всем загруженным участникам, кроме отправителя
+    public void onMessage(int chatId, int messageId, int senderId) {
+        long stamp = lock.readLock();
+        try {
+            Map<Integer, Counter> chatCounters = byChat.get(chatId);
+            if (chatCounters != null) {
+                for (Map.Entry<Integer, Counter> entry : chatCounters.entrySet()) {
+                    if (entry.getKey() != senderId) {
+                        entry.getValue().unread.incrementAndGet();
+                    }
+                }
+            }
+            for (Fence fence : fences) {
+                fence.add(chatId, messageId, senderId);
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Сообщение удалено: -1 тем, у кого оно было непрочитанным
+    public void onMessageDeleted(int chatId, int messageId, int senderId) {
+        Map<Integer, Counter> chatCounters = byChat.get(chatId);
+        if (chatCounters == null) {
+            return;
+        }
+        for (Map.Entry<Integer, Counter> entry : chatCounters.entrySet()) {
+            Counter counter = entry.getValue();
+            if (entry.getKey() != senderId && messageId > counter.lastRead) {
+                counter.unread.getAndUpdate(unread -> Math.max(unread - 1, 0));
+            }
+        }
+    }
+
+    // Новый маркер и остаток непрочитанных после него из того же запроса, что сдвинул маркер
+    public void markRead(Fence fence, int chatId, Seed seed) {
+        long stamp = lock.writeLock();
+        try {
+            fences.remove(fence);
+            Map<Integer, Counter> userCounters = byUser.get(fence.userId);
+            if (userCounters != null) {
+                Counter counter = counter(userCounters, chatId, fence.userId);
+                counter.lastRead = seed.lastRead;
+                counter.unread.set(seed.unread + fence.missed(chatId, seed));
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Запрос к БД не удался - события для него больше не копим
+    public void cancel(Fence fence) {
+        fences.remove(fence);
+    }
+
+    // Пользователь добавлен в чат - заводим счётчик, если он уже загружен
+    public void addParticipant(int chatId, int userId) {
+        Map<Integer, Counter> userCounters = byUser.get(userId);
+        if (userCounters != null) {
+            counter(userCounters, chatId, userId);
+        }
+    }
+
+    public void removeParticipant(int chatId, int userId) {
+        Map<Integer, Counter> userCounters = byUser.get(userId);
+        if (userCounters != null) {
+            userCounters.remove(chatId);
+        }
+        byChat.computeIfPresent(chatId, (id, chatCounters) -> {
+            chatCounters.remove(userId);
+            return chatCounters.isEmpty() ? null : chatCounters;
+        });
+    }
+
+    // Выход пользователя: при следующем обращении счётчики перечитаются из БД
+    public void evict(int userId) {
+        Map<Integer, Counter> userCounters = byUser.remove(userId);
+        if (userCounters == null) {
+            return;
+        }
+        for (Integer chatId : userCounters.keySet()) {
+            byChat.computeIfPresent(chatId, (id, chatCounters) -> {
+                chatCounters.remove(userId);
+                return chatCounters.isEmpty() ? null : chatCounters;
+            });
+        }
+    }
+
+    private Counter counter(Map<Integer, Counter> userCounters, int chatId, int userId) {
+        return userCounters.computeIfAbsent(chatId, id -> {
+            Counter counter = new Counter();
+            byChat.computeIfAbsent(chatId, c -> new ConcurrentHashMap<>()).put(userId, counter);
+            return counter;
+        });
+    }
+
+    private static class Counter {
+        private final AtomicInteger unread = new AtomicInteger();
+        private volatile int lastRead;
+    }
+
+    // Состояние чата участника по данным БД: маркер, непрочитано после него и последний
+    // id сообщения чата, который видел запрос (включая удалённые)
+    public static class Seed {
+        private final int unread;
+        private final int lastRead;
+        private final int lastMessageId;
+
+        public Seed(int unread, int lastRead, int lastMessageId) {
+            this.unread = unread;
+            this.lastRead = lastRead;
+            this.lastMessageId = lastMessageId;
+        }
+    }
+
+    // События, пришедшие, пока шёл запрос к БД (chatId, messageId, senderId подряд)
+    public static class Fence {
+        private final int userId;
+        private int[] events = new int[48];
+        private int size;
+
+        private Fence(int userId) {
+            this.userId = userId;
+        }
+
+        private synchronized void add(int chatId, int messageId, int senderId) {
+            if (size + 3 > events.length) {
+                events = Arrays.copyOf(events, events.length * 2);
+            }
+            events[size++] = chatId;
+            events[size++] = messageId;
+            events[size++] = senderId;
+        }
+
+        // Сообщения чата, которых запрос ещё не видел: id больше последнего увиденного и маркера
+        private synchronized int missed(int chatId, Seed seed) {
+            int missed = 0;
+            for (int i = 0; i < size; i += 3) {
+                if (events[i] == chatId && events[i + 2] != userId
+                        && events[i + 1] > seed.lastMessageId && events[i + 1] > seed.lastRead) {
+                    missed++;
+                }
+            }
+            return missed;
+        }
+    }
+}
@@ -1,3 +1,4 @@
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import java.time.LocalDateTime;
 
 public class User {
@@ -50,6 +51,8 @@ public class User {
         this.username = username;
     }
 
+    // Хэш пароля никогда не уходит в JSON
+    @JsonIgnore
     public String getPassword() {
         return password;
     }
@@ -105,6 +108,7 @@ public class User {
         return LocalDateTime.now().isBefore(blockedUntil);
     }
 
+    @JsonIgnore
     public boolean canSendMessages() {
         return !isCurrentlyBlocked();
     }
@@ -223,6 +227,7 @@ public class User {
     }
 
     // Валидация пользователя
+    @JsonIgnore
     public boolean isValid() {
         return username != null && !username.trim().isEmpty() &&
                 password != null && !password.trim().isEmpty() &&
@@ -0,0 +1,95 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Ограниченный кэш пользователей по id с вытеснением по размеру (LRU) и по времени жизни
+public class UserCache {
+    private final int maxSize;
+    private final long ttlMillis;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final Map<Integer, Entry> entries;
+
+    public UserCache(int maxSize, long ttlMillis) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+                if (size() > UserCache.this.maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public User get(int userId) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(userId);
+            if (entry != null && entry.expiresAt < System.currentTimeMillis()) {
+                entries.remove(userId);
+                evictions.increment();
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.user;
+    }
+
+    public void put(User user) {
+        if (user == null) {
+            return;
+        }
+        Entry entry = new Entry(user, System.currentTimeMillis() + ttlMillis);
+        synchronized (entries) {
+            entries.put(user.getId(), entry);
+        }
+    }
+
+    public void invalidate(int userId) {
+        synchronized (entries) {
+            entries.remove(userId);
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    // Метрики
+    public long getHits() { return hits.sum(); }
+    public long getMisses() { return misses.sum(); }
+    public long getEvictions() { return evictions.sum(); }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    private static class Entry {
+        private final User user;
+        private final long expiresAt;
+
+        Entry(User user, long expiresAt) {
+            this.user = user;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
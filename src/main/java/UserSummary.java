@@ -0,0 +1,35 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Краткое представление пользователя для списков: поиск, контакты, участники чатов
+public class UserSummary {
+    private int id;
+    private String username;
+
+    public UserSummary() {
+    }
+
+    public UserSummary(int id, String username) {
+        this.id = id;
+        this.username = username;
+    }
+
+    public static UserSummary of(User user) {
+        return new UserSummary(user.getId(), user.getUsername());
+    }
+
+    public static List<UserSummary> of(List<User> users) {
+        List<UserSummary> summaries = new ArrayList<>(users.size());
+        for (User user : users) {
+            summaries.add(of(user));
+        }
+        return summaries;
+    }
+
+    // Геттеры и сеттеры
+    public int getId() { return id; }
+    public void setId(int id) { this.id = id; }
+
+    public String getUsername() { return username; }
+    public void setUsername(String username) { this.username = username; }
+}
@@ -0,0 +1,60 @@
+-- Базовая схема MAXON. IF NOT EXISTS: на существующей базе миграция только фиксирует версию
+
+CREATE TABLE IF NOT EXISTS users (
+    id            SERIAL PRIMARY KEY,
+    username      VARCHAR(50)  NOT NULL UNIQUE,
+    password      VARCHAR(255) NOT NULL,
+    role          VARCHAR(20)  NOT NULL DEFAULT 'USER',
+    is_blocked    BOOLEAN      NOT NULL DEFAULT false,
+    blocked_until TIMESTAMP,
+    created_at    TIMESTAMP    NOT NULL DEFAULT NOW()
+);
+
+CREATE TABLE IF NOT EXISTS chats (
+    id         SERIAL PRIMARY KEY,
+    name       VARCHAR(100),
+    is_group   BOOLEAN   NOT NULL DEFAULT false,
+    created_by INTEGER   REFERENCES users(id),
+    created_at TIMESTAMP NOT NULL DEFAULT NOW()
+);
+
+CREATE TABLE IF NOT EXISTS chat_participants (
+    chat_id   INTEGER   NOT NULL REFERENCES chats(id) ON DELETE CASCADE,
+    user_id   INTEGER   NOT NULL REFERENCES users(id) ON DELETE CASCADE,
+    joined_at TIMESTAMP NOT NULL DEFAULT NOW(),
+    PRIMARY KEY (chat_id, user_id)
+);
+
+CREATE TABLE IF NOT EXISTS messages (
+    id         SERIAL PRIMARY KEY,
+    chat_id    INTEGER   NOT NULL REFERENCES chats(id) ON DELETE CASCADE,
+    sender_id  INTEGER   NOT NULL REFERENCES users(id),
+    content    TEXT      NOT NULL,
+    is_deleted BOOLEAN   NOT NULL DEFAULT false,
+    created_at TIMESTAMP NOT NULL DEFAULT NOW()
+);
+
+CREATE TABLE IF NOT EXISTS contacts (
+    user_id    INTEGER   NOT NULL REFERENCES users(id) ON DELETE CASCADE,
+    contact_id INTEGER   NOT NULL REFERENCES users(id) ON DELETE CASCADE,
+    created_at TIMESTAMP NOT NULL DEFAULT NOW(),
+    PRIMARY KEY (user_id, contact_id)
+);
+
+CREATE TABLE IF NOT EXISTS friend_requests (
+    id           SERIAL PRIMARY KEY,
+    from_user_id INTEGER     NOT NULL REFERENCES users(id) ON DELETE CASCADE,
+    to_user_id   INTEGER     NOT NULL REFERENCES users(id) ON DELETE CASCADE,
+    status       VARCHAR(20) NOT NULL DEFAULT 'PENDING',
+    created_at   TIMESTAMP   NOT NULL DEFAULT NOW()
+);
+
+CREATE TABLE IF NOT EXISTS reports (
+    id             SERIAL PRIMARY KEY,
+    message_id     INTEGER     NOT NULL REFERENCES messages(id) ON DELETE CASCADE,
+    reporter_id    INTEGER     NOT NULL REFERENCES users(id) ON DELETE CASCADE,
+    reason         TEXT,
+    status         VARCHAR(20) NOT NULL DEFAULT 'PENDING',
+    admin_decision TEXT,
+    created_at     TIMESTAMP   NOT NULL DEFAULT NOW()
+);
@@ -0,0 +1,2 @@
+-- Маркер прочтения участника; число непрочитанных выводится из него, а не хранится
+ALTER TABLE chat_participants ADD COLUMN IF NOT EXISTS last_read_message_id INTEGER NOT NULL DEFAULT 0;
@@ -0,0 +1,37 @@
+-- migrate: no-transaction
+-- Полнотекстовый поиск сообщений без перезаписи таблицы под ACCESS EXCLUSIVE:
+-- колонка без DEFAULT меняет только каталог, новые и изменённые строки заполняет триггер,
+-- существующие - пачками по id с коммитом после каждой, индекс строится CONCURRENTLY
+ALTER TABLE messages ADD COLUMN IF NOT EXISTS content_tsv tsvector;
+
+CREATE OR REPLACE FUNCTION messages_content_tsv() RETURNS trigger AS $$
+BEGIN
+    NEW.content_tsv := to_tsvector('russian', coalesce(NEW.content, ''));
+    RETURN NEW;
+END
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS trg_messages_content_tsv ON messages;
+CREATE TRIGGER trg_messages_content_tsv
+    BEFORE INSERT OR UPDATE OF content ON messages
+    FOR EACH ROW EXECUTE FUNCTION messages_content_tsv();
+
+-- Строки, вставленные до триггера; блокировки строк держатся не дольше одной пачки
+DO $$
+DECLARE
+    batch_size CONSTANT INTEGER := 5000;
+    last_id INTEGER := 0;
+    max_id INTEGER;
+BEGIN
+    SELECT coalesce(max(id), 0) INTO max_id FROM messages;
+    WHILE last_id < max_id LOOP
+        UPDATE messages SET content_tsv = to_tsvector('russian', coalesce(content, ''))
+        WHERE id > last_id AND id <= last_id + batch_size AND content_tsv IS NULL;
+        last_id := last_id + batch_size;
+        COMMIT;
+    END LOOP;
+END
+$$;
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_messages_content_tsv
+    ON messages USING gin (content_tsv);
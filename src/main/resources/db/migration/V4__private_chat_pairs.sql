@@ -0,0 +1,23 @@
+-- migrate: no-transaction
+-- Личный чат однозначно задаётся упорядоченной парой участников
+ALTER TABLE chats ADD COLUMN IF NOT EXISTS private_user_low INTEGER;
+ALTER TABLE chats ADD COLUMN IF NOT EXISTS private_user_high INTEGER;
+
+-- Существующим личным чатам пару получает самый старый чат; более поздние дубликаты остаются без пары
+UPDATE chats c
+SET private_user_low = p.low, private_user_high = p.high
+FROM (
+    SELECT DISTINCT ON (low, high) chat_id, low, high
+    FROM (
+        SELECT cp.chat_id, MIN(cp.user_id) AS low, MAX(cp.user_id) AS high
+        FROM chat_participants cp
+        JOIN chats ch ON ch.id = cp.chat_id AND NOT ch.is_group
+        GROUP BY cp.chat_id
+        HAVING COUNT(*) = 2
+    ) pairs
+    ORDER BY low, high, chat_id
+) p
+WHERE c.id = p.chat_id AND c.private_user_low IS NULL;
+
+CREATE UNIQUE INDEX CONCURRENTLY IF NOT EXISTS idx_chats_private_pair
+    ON chats (private_user_low, private_user_high) WHERE NOT is_group;
@@ -0,0 +1,31 @@
+-- migrate: no-transaction
+-- Индексы под горячие запросы DatabaseService. CONCURRENTLY - таблицы не блокируются на запись
+-- на время сборки; поиск пользователей по подстроке (pg_trgm) - в V6
+
+-- История чата (keyset по id) и последнее сообщение в getUserChats
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_messages_chat_id_live
+    ON messages (chat_id, id DESC) WHERE is_deleted = false;
+
+-- Чаты пользователя; (chat_id, user_id) покрыт первичным ключом
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_chat_participants_user
+    ON chat_participants (user_id, chat_id);
+
+-- Контакты: первичный ключ (user_id, contact_id) на старых базах мог отсутствовать
+CREATE UNIQUE INDEX CONCURRENTLY IF NOT EXISTS idx_contacts_user_contact
+    ON contacts (user_id, contact_id);
+
+-- Входящие и проверка дубликата запроса в друзья - только PENDING
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_friend_requests_to_pending
+    ON friend_requests (to_user_id, created_at DESC) WHERE status = 'PENDING';
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_friend_requests_pair_pending
+    ON friend_requests (from_user_id, to_user_id) WHERE status = 'PENDING';
+
+-- Очередь модерации и жалобы по сообщению
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_reports_pending
+    ON reports (created_at DESC) WHERE status = 'PENDING';
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_reports_message
+    ON reports (message_id);
+
+-- Поиск пользователей по 1-2 символам: префикс по lower(username), триграммы для таких шаблонов не работают
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_users_username_lower_prefix
+    ON users (lower(username) text_pattern_ops);
@@ -0,0 +1,7 @@
+-- migrate: no-transaction
+-- migrate: requires-extension pg_trgm
+-- Поиск пользователей по подстроке (ILIKE '%...%'). Расширение pg_trgm - предусловие:
+-- CREATE EXTENSION pg_trgm выполняет администратор БД (нужны права владельца базы).
+-- Без него миграция пропускается, а поиск от трёх символов идёт по префиксу (V5)
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_users_username_trgm
+    ON users USING gin (username gin_trgm_ops);
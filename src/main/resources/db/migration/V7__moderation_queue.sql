@@ -0,0 +1,26 @@
+-- migrate: no-transaction
+-- Очередь модерации: агрегат ожидающих жалоб по сообщению. Поддерживается при создании
+-- жалобы и пересчитывается по затронутым сообщениям при решениях администратора
+CREATE TABLE IF NOT EXISTS moderation_queue (
+    message_id        INTEGER   PRIMARY KEY REFERENCES messages(id) ON DELETE CASCADE,
+    pending_count     INTEGER   NOT NULL,
+    first_reported_at TIMESTAMP NOT NULL,
+    last_reported_at  TIMESTAMP NOT NULL
+);
+
+INSERT INTO moderation_queue (message_id, pending_count, first_reported_at, last_reported_at)
+SELECT message_id, COUNT(*), MIN(created_at), MAX(created_at)
+FROM reports
+WHERE status = 'PENDING'
+GROUP BY message_id
+ON CONFLICT (message_id) DO NOTHING;
+
+-- Keyset-пагинация в обеих сортировках
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_moderation_queue_count
+    ON moderation_queue (pending_count DESC, message_id DESC);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_moderation_queue_recent
+    ON moderation_queue (last_reported_at DESC, message_id DESC);
+
+-- Пересчёт агрегата по сообщению читает только его ожидающие жалобы
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_reports_message_pending
+    ON reports (message_id, created_at) WHERE status = 'PENDING';
@@ -0,0 +1,5 @@
+-- migrate: no-transaction
+-- Пакетное решение по всем жалобам на пользователя: его сообщения по sender_id,
+-- дальше жалобы находятся через idx_reports_message
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_messages_sender
+    ON messages (sender_id, id);
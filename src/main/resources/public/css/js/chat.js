@@ -5,6 +5,7 @@ class ChatManager {
         this.chats = [];
         this.messages = new Map(); // chatId -> messages array
         this.pollingInterval = null;
+        this.socket = null;
         this.init();
     }
 
@@ -12,7 +13,26 @@ class ChatManager {
         await this.checkAuth();
         this.setupEventListeners();
         this.loadChats();
-        this.startPolling();
+        this.connectSocket();
+    }
+
+    connectSocket() {
+        const protocol = window.location.protocol === 'https:' ? 'wss' : 'ws';
+        this.socket = new WebSocket(`${protocol}://${window.location.host}/ws/chat`);
+
+        this.socket.onopen = () => this.stopPolling();
+
+        this.socket.onmessage = (event) => {
+            const data = JSON.parse(event.data);
+            if (data.type !== 'message') return;
+            this.applyPushedMessage(data.message);
+        };
+
+        // Fall back to polling while the socket is down, then retry
+        this.socket.onclose = () => {
+            this.startPolling();
+            setTimeout(() => this.connectSocket(), 5000);
+        };
     }
 
     async checkAuth() {
@@ -142,7 +162,10 @@ class ChatManager {
         container.innerHTML = this.chats.map(chat => `
             <div class="contact-item ${this.currentChat?.id === chat.id ? 'active' : ''}" 
                  data-chat-id="${chat.id}">
-                <div class="contact-name">${chat.getDisplayName(this.currentUser.id)}</div>
+                <div class="contact-name">
+                    ${chat.getDisplayName(this.currentUser.id)}
+                    ${chat.unreadCount > 0 ? `<span class="unread-badge">${chat.unreadCount}</span>` : ''}
+                </div>
                 <div class="last-message">
                     ${chat.lastMessage ? chat.lastMessage.content : 'Нет сообщений'}
                 </div>
@@ -180,14 +203,64 @@ class ChatManager {
     async loadMessages(chatId) {
         try {
             const response = await fetch(`/api/chat/${chatId}/messages`);
-            const messages = await response.json();
-            this.messages.set(chatId, messages);
+            const page = await response.json();
+            // Server returns the page newest-first
+            const messages = page.messages.slice().reverse();
+            // chatId may come from a data attribute as a string; key by number to match pushes
+            this.messages.set(Number(chatId), messages);
             this.displayMessages(messages);
+            if (page.messages.length > 0) {
+                this.markRead(chatId, page.messages[0].id);
+            }
         } catch (error) {
             console.error('Load messages error:', error);
         }
     }
 
+    // Render a pushed message from the socket payload instead of re-fetching:
+    // a re-fetch may land on a replica that has not replayed the message yet
+    applyPushedMessage(message) {
+        const chat = this.chats.find(c => c.id === message.chatId);
+        if (!chat) {
+            // A chat we have not seen yet (e.g. just added to a group)
+            this.loadChats();
+            return;
+        }
+        chat.lastMessage = message;
+
+        if (this.currentChat && this.currentChat.id === message.chatId) {
+            const messages = this.messages.get(message.chatId) || [];
+            if (!messages.some(m => m.id === message.id)) {
+                messages.push(message);
+                this.messages.set(message.chatId, messages);
+                this.displayMessages(messages);
+            }
+            this.markRead(message.chatId, message.id);
+        } else if (message.senderId !== this.currentUser.id) {
+            chat.unreadCount = (chat.unreadCount || 0) + 1;
+        }
+        this.displayChats();
+    }
+
+    async markRead(chatId, messageId) {
+        const chat = this.chats.find(c => c.id == chatId);
+        if (chat && chat.unreadCount === 0 && chat.lastReadMessageId >= messageId) return;
+        try {
+            await fetch(`/api/chat/${chatId}/read`, {
+                method: 'POST',
+                headers: { 'Content-Type': 'application/x-www-form-urlencoded' },
+                body: `messageId=${messageId}`
+            });
+            if (chat) {
+                chat.unreadCount = 0;
+                chat.lastReadMessageId = messageId;
+                this.displayChats();
+            }
+        } catch (error) {
+            console.error('Mark read error:', error);
+        }
+    }
+
     displayMessages(messages) {
         const container = document.getElementById('messagesContainer');
         container.innerHTML = '';
@@ -387,6 +460,7 @@ class ChatManager {
     }
 
     startPolling() {
+        if (this.pollingInterval) return;
         this.pollingInterval = setInterval(() => {
             if (this.currentChat) {
                 this.loadMessages(this.currentChat.id);
@@ -398,6 +472,7 @@ class ChatManager {
     stopPolling() {
         if (this.pollingInterval) {
             clearInterval(this.pollingInterval);
+            this.pollingInterval = null;
         }
     }
 